@@ -0,0 +1,53 @@
+package br.ufma.ecp;
+
+import br.ufma.ecp.VMWriter.Command;
+import br.ufma.ecp.VMWriter.Segment;
+
+/*
+ * The VMWriter as it was before the instruction encoder: one String.format
+ * per instruction into a StringBuilder. Kept only as the baseline for
+ * VMWriterBenchmark.
+ */
+public class FormatVMWriter {
+    private StringBuilder vmOutput = new StringBuilder();
+
+    public String vmOutput() {
+        return vmOutput.toString();
+    }
+
+    void writePush(Segment segment, int index) {
+        vmOutput.append(String.format("push %s %d\n", segment.value, index));
+    }
+
+    void writePop(Segment segment, int index) {
+        vmOutput.append(String.format("pop %s %d\n", segment.value, index));
+    }
+
+    void writeArithmetic(Command command) {
+        vmOutput.append(String.format("%s\n", command.name().toLowerCase()));
+    }
+
+    void writeLabel(String label) {
+        vmOutput.append(String.format("label %s\n", label));
+    }
+
+    void writeGoto(String label) {
+        vmOutput.append(String.format("goto %s\n", label));
+    }
+
+    void writeIf(String label) {
+        vmOutput.append(String.format("if-goto %s\n", label));
+    }
+
+    void writeCall(String name, int nArgs) {
+        vmOutput.append(String.format("call %s %d\n", name, nArgs));
+    }
+
+    void writeFunction(String name, int nLocals) {
+        vmOutput.append(String.format("function %s %d\n", name, nLocals));
+    }
+
+    void writeReturn() {
+        vmOutput.append(String.format("return\n"));
+    }
+}
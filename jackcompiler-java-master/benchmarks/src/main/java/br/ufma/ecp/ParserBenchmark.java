@@ -0,0 +1,47 @@
+package br.ufma.ecp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// end-to-end Parser.parse plus VMOutput, the same work App does per file
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({ "Pong/PongGame", "Pong/Ball", "Square/SquareGame", "ComplexArrays/Main",
+            "ConvertToBin/Main", "Average/Main", "synthetic-500" })
+    public String program;
+
+    // VM is what App does, BOTH also builds the XML parse tree
+    @Param({ "VM", "BOTH" })
+    public Parser.Output output;
+
+    private byte[] source;
+
+    @Setup
+    public void setup() {
+        source = Programs.load(program);
+    }
+
+    @Benchmark
+    public String parse() {
+        var parser = new Parser(source, output);
+        parser.parse();
+        return parser.VMOutput();
+    }
+}
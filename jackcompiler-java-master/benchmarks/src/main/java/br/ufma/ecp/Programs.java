@@ -0,0 +1,70 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Benchmark inputs: the nand2tetris sample programs (copied into the jar
+ * under programs/) and synthetic classes large enough that regressions in
+ * the hot paths show up in the numbers.
+ */
+public final class Programs {
+
+    private Programs() {
+    }
+
+    // name is either a sample such as "Pong/PongGame" or "synthetic-N" for N subroutines
+    public static byte[] load(String name) {
+        if (name.startsWith("synthetic-")) {
+            return synthetic(Integer.parseInt(name.substring("synthetic-".length())));
+        }
+        try (InputStream in = Programs.class.getResourceAsStream("/programs/" + name + ".jack")) {
+            if (in == null) {
+                throw new IllegalArgumentException("unknown program " + name);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // one class with 'subroutines' methods mixing every statement and expression form
+    public static byte[] synthetic(int subroutines) {
+        var src = new StringBuilder();
+        src.append("/** generated benchmark input */\n");
+        src.append("class Synthetic {\n");
+        src.append("    field int x, y, size;\n");
+        src.append("    field Array data;\n");
+        src.append("    static int count;\n\n");
+        for (int i = 0; i < subroutines; i++) {
+            src.append("    method int step").append(i).append("(int a, int b) {\n");
+            src.append("        var int i, sum;\n");
+            src.append("        var boolean done;\n");
+            src.append("        let i = 0;\n");
+            src.append("        let sum = (a * 2) + (b / 3) - ").append(i).append(";\n");
+            src.append("        // walk the array\n");
+            src.append("        while (i < size) {\n");
+            src.append("            let sum = sum + data[i] + (x & y) | ~i;\n");
+            src.append("            let data[i] = -sum;\n");
+            src.append("            let i = i + 1;\n");
+            src.append("        }\n");
+            src.append("        if ((sum > 100) & (a = b)) {\n");
+            src.append("            do Output.printString(\"step ").append(i).append(" overflow\");\n");
+            src.append("            let done = true;\n");
+            src.append("        } else {\n");
+            src.append("            let done = false;\n");
+            src.append("        }\n");
+            if (i > 0) {
+                src.append("        let sum = sum + step").append(i - 1).append("(a, b);\n");
+            }
+            src.append("        do Screen.drawRectangle(x, y, x + size, y + size);\n");
+            src.append("        let count = count + 1;\n");
+            src.append("        return sum;\n");
+            src.append("    }\n\n");
+        }
+        src.append("}\n");
+        return src.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,103 @@
+package br.ufma.ecp;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.ufma.ecp.VMWriter.Command;
+import br.ufma.ecp.VMWriter.Segment;
+
+// VMWriter emission, an instruction mix close to what the parser produces,
+// against the String.format writer it replaced (FormatVMWriter)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VMWriterBenchmark {
+
+    static final int BLOCKS = 1000;
+    static final int INSTRUCTIONS_PER_BLOCK = 10;
+
+    // labels are built once so only the writer itself is measured
+    static final String[] LOOP = new String[8];
+    static final String[] END = new String[8];
+
+    static {
+        for (int i = 0; i < 8; i++) {
+            LOOP[i] = "WHILE_EXP" + i;
+            END[i] = "WHILE_END" + i;
+        }
+    }
+
+    static void emit(VMWriter writer) {
+        for (int i = 0; i < BLOCKS; i++) {
+            writer.writeLabel(LOOP[i & 7]);
+            writer.writePush(Segment.LOCAL, i & 7);
+            writer.writePush(Segment.CONST, i);
+            writer.writeArithmetic(Command.ADD);
+            writer.writeArithmetic(Command.NOT);
+            writer.writeIf(END[i & 7]);
+            writer.writeCall("Math.multiply", 2);
+            writer.writePop(Segment.THIS, i & 3);
+            writer.writeGoto(LOOP[i & 7]);
+            writer.writeReturn();
+        }
+    }
+
+    // the same instruction mix through the old String.format writer
+    static void emit(FormatVMWriter writer) {
+        for (int i = 0; i < BLOCKS; i++) {
+            writer.writeLabel(LOOP[i & 7]);
+            writer.writePush(Segment.LOCAL, i & 7);
+            writer.writePush(Segment.CONST, i);
+            writer.writeArithmetic(Command.ADD);
+            writer.writeArithmetic(Command.NOT);
+            writer.writeIf(END[i & 7]);
+            writer.writeCall("Math.multiply", 2);
+            writer.writePop(Segment.THIS, i & 3);
+            writer.writeGoto(LOOP[i & 7]);
+            writer.writeReturn();
+        }
+    }
+
+    private final ByteArrayOutputStream sink = new ByteArrayOutputStream(1 << 20);
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCKS * INSTRUCTIONS_PER_BLOCK)
+    public String emitInstructions() {
+        var writer = new VMWriter();
+        emit(writer);
+        return writer.vmOutput();
+    }
+
+    // streaming mode: no in-memory copy of the program, only the 8 KiB buffer
+    @Benchmark
+    @OperationsPerInvocation(BLOCKS * INSTRUCTIONS_PER_BLOCK)
+    public int streamInstructions() {
+        sink.reset();
+        var writer = new VMWriter(sink);
+        emit(writer);
+        writer.flush();
+        return sink.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCKS * INSTRUCTIONS_PER_BLOCK)
+    public String formatInstructions() {
+        var writer = new FormatVMWriter();
+        emit(writer);
+        return writer.vmOutput();
+    }
+}
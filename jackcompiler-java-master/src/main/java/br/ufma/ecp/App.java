@@ -1,64 +1,430 @@
-package br.ufma.ecp; 
+package br.ufma.ecp;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class App {
 
-    
-    public static void main(String[] args) {
-        if (args.length != 1) {
+    // outcome of compiling one file; error is null on success, stats is null unless asked for
+    record Result(String inputFileName, boolean upToDate, String error, CompileStats stats) {
+    }
+
+    // command line settings shared by every compilation of a run
+    static class Options {
+        int jobs = 1;
+        boolean watch;
+        BuildCache cache;
+        // compile large files with Pipeline, scanner and writer on their own threads
+        boolean pipeline;
+        // print where the time went, per file and for the whole run
+        boolean stats;
+        Set<Parser.Optimization> optimizations = EnumSet.noneOf(Parser.Optimization.class);
+        // parse into an Ast first and generate code from it
+        boolean ast;
+        // with DCE on a whole program, the subroutines Main.main can reach
+        Set<String> live;
+        // the declarations of every class when a directory is compiled
+        SignatureIndex index;
+        // with INLINE on, what can be inlined across the classes of the run
+        Inliner inliner;
+
+        // the same settings, for another program
+        Options copy() {
+            var copy = new Options();
+            copy.jobs = jobs;
+            copy.watch = watch;
+            copy.cache = cache;
+            copy.pipeline = pipeline;
+            copy.stats = stats;
+            copy.optimizations = optimizations;
+            copy.ast = ast;
+            copy.live = live;
+            copy.index = index;
+            copy.inliner = inliner;
+            return copy;
+        }
+    }
+
+    /*
+     * Reads what the classes of a program need from each other before any is
+     * compiled: the signature index, what can be inlined and, with DCE, the
+     * live subroutines. A directory is a program; a watched one changes under
+     * the index and the call graph, so it is compiled class by class.
+     *
+     * All of that follows from the sources, so the cache is salted with a
+     * digest of every class of the program instead, and opened first: when
+     * every class is in it, nothing else needs reading.
+     */
+    static void prepare(Options options, List<File> files, boolean directory, File cacheDir) {
+        var program = !options.watch && (directory || options.optimizations.contains(Parser.Optimization.INLINE));
+        if (cacheDir != null) {
+            try {
+                var paths = files.stream().map(File::toPath).toList();
+                options.cache = new BuildCache(cacheDir.toPath(), cacheSalt(options,
+                        program ? BuildCache.digest(paths) : null));
+                if (program && options.cache.containsAll(paths)) {
+                    return;
+                }
+            } catch (IOException e) {
+                // a class that cannot be read is reported when it is compiled, without a cache
+                options.cache = null;
+            }
+        }
+        if (directory && !options.watch) {
+            options.index = SignatureIndex.build(files, options.jobs);
+        }
+        if (options.optimizations.contains(Parser.Optimization.INLINE) && !options.watch) {
+            options.inliner = Inliner.build(files, options.jobs);
+        }
+        if (options.optimizations.contains(Parser.Optimization.DCE) && directory && !options.watch) {
+            // after inlining, a subroutine only called where it was inlined is dead
+            options.live = DeadCode.live(files, options.inliner, System.err);
+        }
+    }
+
+    static Parser configure(Parser parser, Options options) {
+        parser.optimize(options.optimizations);
+        if (options.ast) {
+            parser.buildAst();
+        }
+        if (options.live != null) {
+            parser.keep(options.live);
+        }
+        if (options.index != null) {
+            parser.index(options.index);
+        }
+        if (options.inliner != null) {
+            parser.inline(options.inliner);
+        }
+        return parser;
+    }
+
+    /*
+     * Everything besides the source that the output of a class depends on;
+     * a setting that changes the generated code must show up here, or the
+     * cache hands back code built without it. program is the digest of the
+     * classes it was compiled with, null for a class compiled on its own.
+     */
+    static String cacheSalt(Options options, String program) {
+        // optimized and plain builds of a class must not share an entry
+        var salt = options.optimizations.isEmpty() ? "" : options.optimizations.toString();
+        // the index, what gets inlined and which subroutines are kept depend on the other classes too
+        salt += program != null ? "program:" + program : "class";
+        return salt;
+    }
+
+    public static String fromFile(File file) {
+        try {
+            return Files.readString(file.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void saveToFile(String fileName, String output) {
+        try {
+            Files.writeString(new File(fileName).toPath(), output, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // files at least this large are mapped rather than read into the heap
+    static final long MAP_THRESHOLD = 256 * 1024;
+
+    // small files are cheaper to read than to map
+    static ByteBuffer readSource(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var size = channel.size();
+            if (size >= MAP_THRESHOLD) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            var buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0)
+                    break;
+            }
+            return buffer.flip();
+        }
+    }
+
+    static String outputFileName(String inputFileName) {
+        var pos = inputFileName.lastIndexOf('.');
+        return inputFileName.substring(0, pos) + ".vm";
+    }
+
+    // each file has its own Parser/SymbolTable/VMWriter, so this is safe to run in parallel
+    static Result compile(File f, Options options) {
+        var event = new CompileStats.CompileEvent();
+        // the phases are only timed when someone is looking
+        var stats = options.stats || event.isEnabled() ? new CompileStats() : null;
+        event.begin();
+        var result = compile(f, options, stats);
+        if (stats != null) {
+            event.file = result.inputFileName();
+            event.set(stats);
+        }
+        event.commit();
+        return result;
+    }
+
+    private static Result compile(File f, Options options, CompileStats stats) {
+        var cache = options.cache;
+        var inputFileName = f.getAbsolutePath();
+        var outputFileName = outputFileName(inputFileName);
+        var start = System.nanoTime();
+        var allocated = stats != null ? CompileStats.allocatedByThisThread() : -1;
+        long parserNanos = 0;
+        try {
+            var input = readSource(f.toPath());
+            String key = null;
+            if (stats != null) {
+                stats.sourceBytes = input.remaining();
+            }
+            if (cache != null) {
+                key = cache.key(input);
+                if (cache.restore(key, new File(outputFileName).toPath())) {
+                    if (stats != null) {
+                        stats.upToDate = 1;
+                    }
+                    return new Result(inputFileName, true, null, stats);
+                }
+            }
+            var output = new File(outputFileName).toPath();
+            try (var channel = FileChannel.open(output, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                var parserStart = System.nanoTime();
+                if (stats != null) {
+                    // timing the phases needs them on one thread, so this ignores --pipeline
+                    var parser = configure(new Parser(input, channel, stats), options);
+                    parser.parse();
+                    stats.peepholeRemoved = parser.peepholeRemoved();
+                // the pipeline only pays for its threads on big classes
+                } else if (options.pipeline && input.remaining() >= MAP_THRESHOLD) {
+                    Pipeline.compile(input, channel, parser -> configure(parser, options));
+                } else {
+                    configure(new Parser(input, channel), options).parse();
+                }
+                parserNanos = System.nanoTime() - parserStart;
+            } catch (RuntimeException e) {
+                // do not leave half a class behind
+                Files.deleteIfExists(output);
+                throw e;
+            }
+            if (cache != null) {
+                cache.store(key, output);
+            }
+            return new Result(inputFileName, false, null, stats);
+        } catch (IOException e) {
+            return new Result(inputFileName, false, e.toString(), stats);
+        } catch (RuntimeException e) {
+            return new Result(inputFileName, false, e.getMessage(), stats);
+        } finally {
+            if (stats != null) {
+                stats.files = 1;
+                stats.totalNanos = System.nanoTime() - start;
+                // so far ioNanos only holds the writer's flushes, which ran inside the parser
+                stats.parseNanos = Math.max(0, parserNanos - stats.scanNanos - stats.symbolNanos
+                        - stats.codegenNanos - stats.ioNanos);
+                stats.ioNanos += stats.totalNanos - parserNanos;
+                stats.allocatedBytes = allocated < 0 ? -1 : CompileStats.allocatedByThisThread() - allocated;
+            }
+        }
+    }
+
+    // the source is scanned in chunks as it arrives, so a pipe never has to fit in memory
+    static boolean compileStdin(Options options) {
+        var out = Channels.newChannel(System.out);
+        try {
+            configure(new Parser(Channels.newChannel(System.in), out), options).parse();
+            System.out.flush();
+            return true;
+        } catch (RuntimeException e) {
+            System.out.flush();
+            System.err.println("<stdin>: " + e.getMessage());
+            return false;
+        }
+    }
+
+    static List<File> jackFiles(File dir) {
+        var files = new ArrayList<File>();
+        for (File f : dir.listFiles()) {
+            if (f.isFile() && f.getName().endsWith(".jack")) {
+                files.add(f);
+            }
+        }
+        // listFiles has no defined order, sort so the output is deterministic
+        files.sort(Comparator.comparing(File::getName));
+        return files;
+    }
+
+    // compiles the files on a pool of 'jobs' threads, reporting in file order
+    static boolean compileAll(List<File> files, Options options) {
+        var ok = true;
+        var start = System.nanoTime();
+        var total = new CompileStats();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(options.jobs, files.size())));
+        try {
+            var futures = new ArrayList<Future<Result>>();
+            for (File f : files) {
+                futures.add(pool.submit(() -> compile(f, options)));
+            }
+            for (Future<Result> future : futures) {
+                var result = future.get();
+                if (result.upToDate()) {
+                    System.out.println("up to date " + result.inputFileName());
+                } else {
+                    System.out.println("compiling " + result.inputFileName());
+                }
+                if (result.error() != null) {
+                    System.err.println(result.inputFileName() + ": " + result.error());
+                    ok = false;
+                }
+                if (options.stats) {
+                    result.stats().print(result.inputFileName(), System.out);
+                    total.add(result.stats());
+                }
+            }
+            if (options.stats) {
+                total.printSummary(System.out);
+                // with --jobs the per-file times add up to more than the wall time
+                System.out.printf("stats wall time: %.3f ms%n", (System.nanoTime() - start) / 1e6);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return ok;
+    }
+
+    static int parseJobs(String value) {
+        try {
+            var jobs = Integer.parseInt(value);
+            // 0 (or less) means one job per available core
+            return jobs > 0 ? jobs : Runtime.getRuntime().availableProcessors();
+        } catch (NumberFormatException e) {
+            System.err.println("--jobs expects a number, got " + value);
+            System.exit(1);
+            return 1;
+        }
+    }
+
+    // -O turns everything on, --opt takes a comma separated list such as fold
+    static Set<Parser.Optimization> parseOptimizations(String value) {
+        var optimizations = EnumSet.noneOf(Parser.Optimization.class);
+        for (String name : value.split(",")) {
+            try {
+                optimizations.add(Parser.Optimization.valueOf(name.trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                System.err.println("unknown optimization " + name + ", expected one of "
+                        + Arrays.toString(Parser.Optimization.values()).toLowerCase());
+                System.exit(1);
+            }
+        }
+        return optimizations;
+    }
+
+    public static void main(String[] args) throws IOException {
+        var options = new Options();
+        String path = null;
+        File cacheDir = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--jobs") && i + 1 < args.length) {
+                options.jobs = parseJobs(args[++i]);
+            } else if (args[i].equals("--watch")) {
+                options.watch = true;
+            } else if (args[i].equals("--stats")) {
+                options.stats = true;
+            } else if (args[i].equals("--pipeline")) {
+                options.pipeline = true;
+            } else if (args[i].equals("--ast")) {
+                options.ast = true;
+            } else if (args[i].equals("-O")) {
+                options.optimizations = EnumSet.allOf(Parser.Optimization.class);
+            } else if (args[i].equals("--opt") && i + 1 < args.length) {
+                options.optimizations = parseOptimizations(args[++i]);
+            } else if (args[i].equals("--cache") && i + 1 < args.length) {
+                cacheDir = new File(args[++i]);
+            } else if (path == null) {
+                path = args[i];
+            } else {
+                path = null;
+                break;
+            }
+        }
+
+        // "-" compiles the class read from stdin to stdout
+        if ("-".equals(path)) {
+            if (!compileStdin(options)) {
+                System.exit(1);
+            }
+            return;
+        }
+
+        if (path == null) {
             System.err.println("Please provide a single file path argument.");
+            System.err.println("usage: App [--jobs N] [--cache DIR] [--watch] [--pipeline] [--stats] [--ast] [-O | --opt LIST] <file.jack | directory | ->");
             System.exit(1);
         }
 
-        File file = new File(args[0]);
+        File file = new File(path);
 
         if (!file.exists()) {
             System.err.println("The file doesn't exist.");
             System.exit(1);
         }
 
+        List<File> files;
+
         // we need to compile every file in the directory
         if (file.isDirectory()) {
-            for (File f : file.listFiles()) {
-                if (f.isFile() && f.getName().endsWith(".jack")) {
-
-                    var inputFileName = f.getAbsolutePath();
-                    var pos = inputFileName.indexOf('.');
-                    var outputFileName = inputFileName.substring(0, pos) + ".vm";
-                    
-                    System.out.println("compiling " +  inputFileName);
-                    var input = fromFile(f);
-                    var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
-                    parser.parse();
-                    var result = parser.VMOutput();
-                    saveToFile(outputFileName, result);
-                }
-
-            }
+            files = jackFiles(file);
         // we only compile the single file
-        } else if (file.isFile()) {
+        } else {
             if (!file.getName().endsWith(".jack"))  {
                 System.err.println("Please provide a file name ending with .jack");
                 System.exit(1);
-            } else {
-                var inputFileName = file.getAbsolutePath();
-                var pos = inputFileName.indexOf('.');
-                var outputFileName = inputFileName.substring(0, pos) + ".vm";
-                
-                System.out.println("compiling " +  inputFileName);
-                var input = fromFile(file);
-                var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
-                parser.parse();
-                var result = parser.VMOutput();
-                saveToFile(outputFileName, result);
-                
             }
+            files = Arrays.asList(file);
+        }
+
+        prepare(options, files, file.isDirectory(), cacheDir);
+
+        var ok = compileAll(files, options);
+        if (options.stats && options.inliner != null) {
+            options.inliner.report(System.out);
+        }
+
+        // keep the JVM (and the JIT) warm and recompile whatever changes
+        if (options.watch) {
+            CompileWatcher.of(file, options).run();
+        }
+
+        if (!ok) {
+            System.exit(1);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,395 @@
+package br.ufma.ecp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import br.ufma.ecp.VMWriter.Segment;
+import br.ufma.ecp.token.TokenType;
+
+/*
+ * The tree of one class, kept in parallel arrays instead of node objects:
+ * a node is an index, its kind and up to three int attributes are array
+ * slots, and children are linked through first/next. Names and string
+ * literals live in a side table and nodes refer to them by position.
+ *
+ * Node 0 is the CLASS. What a, b and c hold, by kind:
+ *
+ *   CLASS       a = number of fields,              children: SUBROUTINE...
+ *               b = number of statics, c = name
+ *   SUBROUTINE  a = name, b = subroutine keyword,  children: BLOCK
+ *               c = number of locals
+ *   BLOCK                                          children: statements
+ *   LET         a = segment, b = index             children: value
+ *   LET_ARRAY   a = segment, b = index             children: index, value
+ *   DO                                             children: CALL
+ *   RETURN                                         children: value, if any
+ *   IF                                             children: condition, BLOCK, else BLOCK if any
+ *   WHILE                                          children: condition, BLOCK
+ *   LOOP        a while that never ends, see DeadCode  children: BLOCK
+ *   CONST       a = value
+ *   KEYWORD     a = true, false or null
+ *   STRING      a = text
+ *   THIS
+ *   VAR         a = segment, b = index
+ *   ARRAY_READ  a = segment, b = index             children: index
+ *   CALL        a = name, b = number of arguments  children: arguments, receiver first
+ *   UNARY       a = operator                       children: operand
+ *   BINARY      a = operator                       children: left, right
+ *
+ * Keywords and operators are stored as TokenType ordinals, segments as
+ * Segment ordinals.
+ */
+final class Ast {
+
+    enum Kind {
+        CLASS, SUBROUTINE, BLOCK,
+        LET, LET_ARRAY, DO, RETURN, IF, WHILE, LOOP,
+        CONST, KEYWORD, STRING, THIS, VAR, ARRAY_READ, CALL, UNARY, BINARY
+    }
+
+    static final int NONE = -1;
+    private static final Kind[] KINDS = Kind.values();
+    private static final Segment[] SEGMENTS = Segment.values();
+
+    private byte[] kind = new byte[64];
+    private int[] a = new int[64];
+    private int[] b = new int[64];
+    private int[] c = new int[64];
+    private int[] first = new int[64];
+    private int[] next = new int[64];
+    // only needed while children are appended
+    private int[] last = new int[64];
+    private int size;
+    private final List<String> strings = new ArrayList<>();
+
+    // while emit() runs with arrays on: whether the statement may read an element again
+    // through pointer 1, and the ARRAY_READ or LET_ARRAY whose element it is at, NONE if unknown
+    private boolean arrays;
+    private boolean reuse;
+    private int element = NONE;
+
+    Ast() {
+        add(Kind.CLASS, 0, 0, 0);
+    }
+
+    int add(Kind k, int a, int b, int c) {
+        if (size == kind.length) {
+            var n = size * 2;
+            kind = Arrays.copyOf(kind, n);
+            this.a = Arrays.copyOf(this.a, n);
+            this.b = Arrays.copyOf(this.b, n);
+            this.c = Arrays.copyOf(this.c, n);
+            first = Arrays.copyOf(first, n);
+            next = Arrays.copyOf(next, n);
+            last = Arrays.copyOf(last, n);
+        }
+        kind[size] = (byte) k.ordinal();
+        this.a[size] = a;
+        this.b[size] = b;
+        this.c[size] = c;
+        first[size] = NONE;
+        next[size] = NONE;
+        last[size] = NONE;
+        return size++;
+    }
+
+    int add(Kind k) {
+        return add(k, 0, 0, 0);
+    }
+
+    int string(String s) {
+        strings.add(s);
+        return strings.size() - 1;
+    }
+
+    void append(int parent, int child) {
+        if (first[parent] == NONE) {
+            first[parent] = child;
+        } else {
+            next[last[parent]] = child;
+        }
+        last[parent] = child;
+    }
+
+    void setFields(int nFields) {
+        a[0] = nFields;
+    }
+
+    void setKind(int node, Kind k) {
+        kind[node] = (byte) k.ordinal();
+    }
+
+    // replaces the children of parent, for passes that rewrite the tree
+    void setChildren(int parent, List<Integer> children) {
+        first[parent] = NONE;
+        last[parent] = NONE;
+        for (int child : children) {
+            append(parent, child);
+        }
+        if (last[parent] != NONE) {
+            next[last[parent]] = NONE;
+        }
+    }
+
+    // node becomes a copy of with, children included, and keeps its place among its siblings
+    void replace(int node, int with) {
+        kind[node] = kind[with];
+        a[node] = a[with];
+        b[node] = b[with];
+        c[node] = c[with];
+        first[node] = first[with];
+        last[node] = last[with];
+    }
+
+    void setClass(int name, int nStatics) {
+        b[0] = nStatics;
+        c[0] = name;
+    }
+
+    String className() {
+        return strings.get(c[0]);
+    }
+
+    int size() {
+        return size;
+    }
+
+    Kind kind(int node) {
+        return KINDS[kind[node]];
+    }
+
+    int a(int node) {
+        return a[node];
+    }
+
+    int b(int node) {
+        return b[node];
+    }
+
+    int c(int node) {
+        return c[node];
+    }
+
+    String text(int node) {
+        return strings.get(a[node]);
+    }
+
+    Segment segment(int node) {
+        return SEGMENTS[a[node]];
+    }
+
+    TokenType token(int node) {
+        return TokenType.fromOrdinal(a[node]);
+    }
+
+    int first(int node) {
+        return first[node];
+    }
+
+    int next(int node) {
+        return next[node];
+    }
+
+    // plays the class back into sink, in the order the parser reported it
+    void emit(AstSink sink) {
+        emit(sink, false);
+    }
+
+    /*
+     * With arrays on (the ARRAYS optimization) a store into an element whose
+     * value does not use that sets pointer 1 before the value instead of
+     * going through temp 0, and a statement without calls reads an element
+     * it has just read or is storing into with push that 0 alone.
+     */
+    void emit(AstSink sink, boolean arrays) {
+        this.arrays = arrays;
+        sink.startClass(className(), b(0));
+        for (int sub = first(0); sub != NONE; sub = next(sub)) {
+            sink.startSubroutine();
+            sink.function(text(sub), TokenType.fromOrdinal(b(sub)), c(sub), a(0));
+            block(first(sub), sink);
+        }
+        sink.endClass();
+    }
+
+    private void block(int block, AstSink sink) {
+        for (int s = first(block); s != NONE; s = next(s)) {
+            statement(s, sink);
+        }
+    }
+
+    private void statement(int s, AstSink sink) {
+        // a call can change what the index depends on
+        reuse = arrays && !hasCall(s);
+        element = NONE;
+        switch (kind(s)) {
+            case LET:
+                expression(first(s), sink);
+                sink.materialize();
+                sink.let(segment(s), b(s));
+                break;
+            case LET_ARRAY: {
+                var index = first(s);
+                var value = next(index);
+                expression(index, sink);
+                sink.materialize();
+                sink.arrayElement(segment(s), b(s));
+                if (arrays && !usesThat(value, s)) {
+                    sink.pointElement();
+                    element = reuse ? s : NONE;
+                    expression(value, sink);
+                    sink.materialize();
+                    sink.letElement();
+                } else {
+                    expression(value, sink);
+                    sink.materialize();
+                    sink.letArray(segment(s), b(s));
+                }
+                break;
+            }
+            case DO:
+                expression(first(s), sink);
+                sink.doStatement();
+                break;
+            case RETURN:
+                if (first(s) != NONE) {
+                    expression(first(s), sink);
+                }
+                sink.returnStatement(first(s) != NONE);
+                break;
+            case IF: {
+                var condition = first(s);
+                var then = next(condition);
+                var otherwise = next(then);
+                expression(condition, sink);
+                var id = sink.ifStart();
+                block(then, sink);
+                if (otherwise != NONE) {
+                    sink.ifElse(id);
+                    block(otherwise, sink);
+                }
+                sink.ifEnd(id, otherwise != NONE);
+                break;
+            }
+            case WHILE: {
+                var condition = first(s);
+                var id = sink.whileStart();
+                expression(condition, sink);
+                sink.whileCondition(id);
+                block(next(condition), sink);
+                sink.whileEnd(id);
+                break;
+            }
+            case LOOP: {
+                var id = sink.whileStart();
+                block(first(s), sink);
+                sink.loopEnd(id);
+                break;
+            }
+            default:
+                throw new IllegalStateException("not a statement: " + kind(s));
+        }
+    }
+
+    private void expression(int e, AstSink sink) {
+        switch (kind(e)) {
+            case CONST:
+                sink.pushConstant(a(e));
+                break;
+            case KEYWORD:
+                sink.pushKeyword(token(e));
+                break;
+            case STRING:
+                sink.pushString(text(e));
+                break;
+            case THIS:
+                sink.pushThis();
+                break;
+            case VAR:
+                sink.pushVariable(segment(e), b(e));
+                break;
+            case ARRAY_READ:
+                if (element != NONE && sameElement(element, e)) {
+                    sink.pushElement();
+                    break;
+                }
+                expression(first(e), sink);
+                sink.arrayRead(segment(e), b(e));
+                element = reuse ? e : NONE;
+                break;
+            case CALL:
+                // materialize() changes nothing for the receiver, a variable or this
+                for (int arg = first(e); arg != NONE; arg = next(arg)) {
+                    expression(arg, sink);
+                    sink.materialize();
+                }
+                sink.call(text(e), b(e));
+                break;
+            case UNARY:
+                expression(first(e), sink);
+                sink.unary(token(e));
+                break;
+            case BINARY: {
+                var left = first(e);
+                expression(left, sink);
+                sink.beginBinary(token(e));
+                expression(next(left), sink);
+                sink.binary(token(e));
+                break;
+            }
+            default:
+                throw new IllegalStateException("not an expression: " + kind(e));
+        }
+    }
+
+
+    // the calls of a statement, not counting the blocks inside it; * and / call the OS, which changes no variable
+    private boolean hasCall(int node) {
+        if (kind(node) == Kind.CALL) {
+            return true;
+        }
+        for (int child = first(node); child != NONE; child = next(child)) {
+            if (kind(child) != Kind.BLOCK && hasCall(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // whether computing e moves pointer 1 away from the element of target, a LET_ARRAY
+    private boolean usesThat(int e, int target) {
+        if (kind(e) == Kind.ARRAY_READ) {
+            return !(reuse && sameElement(target, e));
+        }
+        // a call saves and restores that, except for those that may be written in place
+        if (kind(e) == Kind.CALL && (text(e).equals("Memory.peek") || text(e).equals("Memory.poke"))) {
+            return true;
+        }
+        for (int child = first(e); child != NONE; child = next(child)) {
+            if (usesThat(child, target)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // x and y are ARRAY_READ or LET_ARRAY nodes
+    private boolean sameElement(int x, int y) {
+        return a(x) == a(y) && b(x) == b(y) && sameExpression(first(x), first(y));
+    }
+
+    private boolean sameExpression(int x, int y) {
+        if (kind(x) != kind(y) || a(x) != a(y) || b(x) != b(y) || kind(x) == Kind.CALL || kind(x) == Kind.STRING) {
+            return false;
+        }
+        int cx = first(x);
+        int cy = first(y);
+        for (; cx != NONE && cy != NONE; cx = next(cx), cy = next(cy)) {
+            if (!sameExpression(cx, cy)) {
+                return false;
+            }
+        }
+        return cx == cy;
+    }
+}
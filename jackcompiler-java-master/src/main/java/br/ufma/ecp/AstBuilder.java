@@ -0,0 +1,222 @@
+package br.ufma.ecp;
+
+import java.util.Arrays;
+
+import br.ufma.ecp.Ast.Kind;
+import br.ufma.ecp.VMWriter.Segment;
+import br.ufma.ecp.token.TokenType;
+
+/*
+ * Records what the Parser reports as an Ast instead of generating code.
+ * Expressions are built on a stack of node ids, the same way CodeGenerator
+ * builds them on the VM stack; statements go into the innermost open block.
+ */
+class AstBuilder implements CodeSink {
+
+    private final Ast ast = new Ast();
+
+    private int[] operands = new int[16];
+    private int operandTop;
+    private int[] blocks = new int[16];
+    private int blockTop;
+
+    Ast ast() {
+        return ast;
+    }
+
+    private static int[] push(int[] stack, int top, int node) {
+        if (top == stack.length) {
+            stack = Arrays.copyOf(stack, top * 2);
+        }
+        stack[top] = node;
+        return stack;
+    }
+
+    private void pushOperand(int node) {
+        operands = push(operands, operandTop++, node);
+    }
+
+    private int popOperand() {
+        return operands[--operandTop];
+    }
+
+    private void openBlock(int block) {
+        blocks = push(blocks, blockTop++, block);
+    }
+
+    private void statement(int node) {
+        ast.append(blocks[blockTop - 1], node);
+    }
+
+    @Override
+    public void startClass(String className, int nStatics) {
+        ast.setClass(ast.string(className), nStatics);
+    }
+
+    @Override
+    public void endClass() {
+    }
+
+    @Override
+    public void startSubroutine() {
+        blockTop = 0;
+        operandTop = 0;
+    }
+
+    @Override
+    public void function(String functionName, TokenType subroutineType, int nLocals, int nFields) {
+        ast.setFields(nFields);
+        var sub = ast.add(Kind.SUBROUTINE, ast.string(functionName), subroutineType.ordinal(), nLocals);
+        ast.append(0, sub);
+        var body = ast.add(Kind.BLOCK);
+        ast.append(sub, body);
+        openBlock(body);
+    }
+
+    @Override
+    public void materialize() {
+    }
+
+    @Override
+    public void pushConstant(int value) {
+        pushOperand(ast.add(Kind.CONST, value, 0, 0));
+    }
+
+    @Override
+    public void pushKeyword(TokenType type) {
+        pushOperand(ast.add(Kind.KEYWORD, type.ordinal(), 0, 0));
+    }
+
+    @Override
+    public void pushString(String value) {
+        pushOperand(ast.add(Kind.STRING, ast.string(value), 0, 0));
+    }
+
+    @Override
+    public void pushThis() {
+        pushOperand(ast.add(Kind.THIS));
+    }
+
+    @Override
+    public void pushVariable(Segment segment, int index) {
+        pushOperand(ast.add(Kind.VAR, segment.ordinal(), index, 0));
+    }
+
+    @Override
+    public void arrayRead(Segment segment, int index) {
+        var node = ast.add(Kind.ARRAY_READ, segment.ordinal(), index, 0);
+        ast.append(node, popOperand());
+        pushOperand(node);
+    }
+
+    @Override
+    public void call(String functionName, int nArgs) {
+        var node = ast.add(Kind.CALL, ast.string(functionName), nArgs, 0);
+        operandTop -= nArgs;
+        for (int i = 0; i < nArgs; i++) {
+            ast.append(node, operands[operandTop + i]);
+        }
+        pushOperand(node);
+    }
+
+    @Override
+    public void unary(TokenType op) {
+        var node = ast.add(Kind.UNARY, op.ordinal(), 0, 0);
+        ast.append(node, popOperand());
+        pushOperand(node);
+    }
+
+    @Override
+    public void beginBinary(TokenType op) {
+    }
+
+    @Override
+    public void binary(TokenType op) {
+        var node = ast.add(Kind.BINARY, op.ordinal(), 0, 0);
+        var right = popOperand();
+        ast.append(node, popOperand());
+        ast.append(node, right);
+        pushOperand(node);
+    }
+
+    @Override
+    public void let(Segment segment, int index) {
+        var node = ast.add(Kind.LET, segment.ordinal(), index, 0);
+        ast.append(node, popOperand());
+        statement(node);
+    }
+
+    // the index stays the operand, LET_ARRAY holds the variable
+    @Override
+    public void arrayElement(Segment segment, int index) {
+    }
+
+    @Override
+    public void letArray(Segment segment, int index) {
+        var node = ast.add(Kind.LET_ARRAY, segment.ordinal(), index, 0);
+        var value = popOperand();
+        ast.append(node, popOperand());
+        ast.append(node, value);
+        statement(node);
+    }
+
+    @Override
+    public void doStatement() {
+        var node = ast.add(Kind.DO);
+        ast.append(node, popOperand());
+        statement(node);
+    }
+
+    @Override
+    public void returnStatement(boolean hasValue) {
+        var node = ast.add(Kind.RETURN);
+        if (hasValue) {
+            ast.append(node, popOperand());
+        }
+        statement(node);
+    }
+
+    @Override
+    public int ifStart() {
+        var node = ast.add(Kind.IF);
+        ast.append(node, popOperand());
+        statement(node);
+        var then = ast.add(Kind.BLOCK);
+        ast.append(node, then);
+        openBlock(then);
+        return node;
+    }
+
+    @Override
+    public void ifElse(int id) {
+        blockTop--;
+        var otherwise = ast.add(Kind.BLOCK);
+        ast.append(id, otherwise);
+        openBlock(otherwise);
+    }
+
+    @Override
+    public void ifEnd(int id, boolean hasElse) {
+        blockTop--;
+    }
+
+    @Override
+    public int whileStart() {
+        var node = ast.add(Kind.WHILE);
+        statement(node);
+        return node;
+    }
+
+    @Override
+    public void whileCondition(int id) {
+        ast.append(id, popOperand());
+        var body = ast.add(Kind.BLOCK);
+        ast.append(id, body);
+        openBlock(body);
+    }
+
+    @Override
+    public void whileEnd(int id) {
+        blockTop--;
+    }
+}
@@ -0,0 +1,25 @@
+package br.ufma.ecp;
+
+/*
+ * What Ast.emit plays a tree back into: everything the parser reports, and
+ * the events only a tree that has been looked at as a whole can produce.
+ * The parser never sees these, so AstBuilder does not implement them.
+ */
+interface AstSink extends CodeSink {
+
+    // ends a loop started with whileStart that has no condition and so never exits;
+    // the parser reports every loop as a while, only DeadCode makes a LOOP
+    void loopEnd(int id);
+
+    /*
+     * The other way to store into an element, with ARRAYS on: pointElement()
+     * takes the address on top into pointer 1, then comes a value that does
+     * not use that, and letElement() stores it. pushElement() reads again the
+     * element pointer 1 is known to be at.
+     */
+    void pointElement();
+
+    void letElement();
+
+    void pushElement();
+}
@@ -0,0 +1,256 @@
+package br.ufma.ecp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * Compiles many project directories in a single JVM.
+ *
+ * usage: BatchCompiler [--jobs N] [--cache DIR] [-O | --opt LIST] <root>... | @manifest
+ *
+ * A manifest is a text file with one root per line (blank lines and lines
+ * starting with # are ignored). Every .jack file below each root is compiled
+ * to a .vm file next to it; as in App, each directory of classes is one
+ * program. Reading and writing files run on an I/O executor (virtual threads
+ * when the runtime has them), parsing runs on a fixed pool sized to the CPU.
+ * At most a few files per job are in flight, so a big tree is never all in
+ * memory at once.
+ */
+public class BatchCompiler {
+
+    record Result(Path file, long bytesIn, long bytesOut, boolean upToDate, String error) {
+    }
+
+    private record Source(Path file, byte[] input, String key) {
+    }
+
+    // files read but not yet written, per job
+    static final int IN_FLIGHT_PER_JOB = 4;
+
+    private final App.Options options;
+    private final File cacheDir;
+    private final ExecutorService io;
+    private final ExecutorService cpu;
+    private final Semaphore inFlight;
+
+    public BatchCompiler(App.Options options, File cacheDir) {
+        this.options = options;
+        this.cacheDir = cacheDir;
+        io = ioExecutor();
+        cpu = Executors.newFixedThreadPool(options.jobs);
+        inFlight = new Semaphore(options.jobs * IN_FLIGHT_PER_JOB);
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor only exists on Java 21+, the
+    // project targets 17, so look it up at runtime and fall back to a cached pool
+    private static ExecutorService ioExecutor() {
+        try {
+            var factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    static List<Path> readManifest(Path manifest) throws IOException {
+        return Files.readAllLines(manifest, StandardCharsets.UTF_8).stream()
+                .map(String::strip)
+                .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                .map(Paths::get)
+                .collect(Collectors.toList());
+    }
+
+    static List<Path> jackFiles(Path root) throws IOException {
+        if (Files.isRegularFile(root)) {
+            return List.of(root);
+        }
+        try (Stream<Path> walk = Files.walk(root)) {
+            return walk.filter(p -> Files.isRegularFile(p) && p.toString().endsWith(".jack"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    // the classes of a directory are compiled against each other, as App does
+    static Map<Path, List<Path>> programs(List<Path> files) {
+        var programs = new LinkedHashMap<Path, List<Path>>();
+        for (Path file : files) {
+            programs.computeIfAbsent(file.toAbsolutePath().getParent(), dir -> new ArrayList<>()).add(file);
+        }
+        return programs;
+    }
+
+    // null when the cache already holds the output
+    private static Source read(Path file, App.Options program) {
+        try {
+            var input = Files.readAllBytes(file);
+            String key = null;
+            if (program.cache != null) {
+                key = program.cache.key(input);
+                if (program.cache.restore(key, output(file))) {
+                    return null;
+                }
+            }
+            return new Source(file, input, key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String compile(byte[] input, App.Options program) {
+        var parser = App.configure(new Parser(input, Parser.Output.VM), program);
+        parser.parse();
+        return parser.VMOutput();
+    }
+
+    private static void write(Path file, String output, String key, App.Options program) {
+        try {
+            Files.writeString(output(file), output, StandardCharsets.UTF_8);
+            if (program.cache != null) {
+                program.cache.store(key, output);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Path output(Path file) {
+        return Paths.get(App.outputFileName(file.toString()));
+    }
+
+    CompletableFuture<Result> submit(Path file, App.Options program) {
+        return CompletableFuture.supplyAsync(() -> read(file, program), io)
+                .thenComposeAsync(source -> {
+                    if (source == null) {
+                        return CompletableFuture.completedFuture(new Result(file, 0, 0, true, null));
+                    }
+                    return CompletableFuture.supplyAsync(() -> compile(source.input(), program), cpu)
+                            .thenApplyAsync(output -> {
+                                write(file, output, source.key(), program);
+                                return new Result(file, source.input().length,
+                                        output.getBytes(StandardCharsets.UTF_8).length, false, null);
+                            }, io);
+                }, io)
+                .exceptionally(e -> {
+                    var cause = e.getCause() != null ? e.getCause() : e;
+                    return new Result(file, 0, 0, false, cause.getMessage());
+                });
+    }
+
+    // compiles every file, printing errors in file order; returns false if any failed
+    public boolean run(List<Path> roots) {
+        var start = System.nanoTime();
+
+        // a root that is missing or cannot be read fails on its own, the others still compile
+        var files = new ArrayList<Path>();
+        int failedRoots = 0;
+        for (Path root : roots) {
+            try {
+                files.addAll(jackFiles(root));
+            } catch (IOException | UncheckedIOException e) {
+                var cause = e instanceof UncheckedIOException u ? u.getCause() : e;
+                System.err.println(root + ": " + cause);
+                failedRoots++;
+            }
+        }
+
+        var futures = new ArrayList<CompletableFuture<Result>>();
+        try {
+            for (Map.Entry<Path, List<Path>> entry : programs(files).entrySet()) {
+                var program = options.copy();
+                var classes = entry.getValue().stream().map(Path::toFile).collect(Collectors.toList());
+                App.prepare(program, classes, true, cacheDir);
+                for (Path file : entry.getValue()) {
+                    // wait for a file to be written before reading another
+                    inFlight.acquire();
+                    var future = submit(file, program);
+                    future.whenComplete((result, e) -> inFlight.release());
+                    futures.add(future);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        long bytesIn = 0, bytesOut = 0;
+        int failed = 0, upToDate = 0;
+        for (CompletableFuture<Result> future : futures) {
+            var result = future.join();
+            if (result.error() != null) {
+                System.err.println(result.file() + ": " + result.error());
+                failed++;
+            }
+            if (result.upToDate()) {
+                upToDate++;
+            }
+            bytesIn += result.bytesIn();
+            bytesOut += result.bytesOut();
+        }
+
+        var elapsed = (System.nanoTime() - start) / 1_000_000;
+        System.out.printf("%d roots (%d failed), %d files (%d failed, %d up to date), %d bytes in, %d bytes out, %d ms%n",
+                roots.size(), failedRoots, files.size(), failed, upToDate, bytesIn, bytesOut, elapsed);
+        return failed == 0 && failedRoots == 0;
+    }
+
+    public void shutdown() {
+        io.shutdown();
+        cpu.shutdown();
+    }
+
+    public static void main(String[] args) throws IOException {
+        var options = new App.Options();
+        options.jobs = Runtime.getRuntime().availableProcessors();
+        File cacheDir = null;
+        var roots = new ArrayList<Path>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--jobs") && i + 1 < args.length) {
+                options.jobs = App.parseJobs(args[++i]);
+            } else if (args[i].equals("-O")) {
+                options.optimizations = EnumSet.allOf(Parser.Optimization.class);
+            } else if (args[i].equals("--opt") && i + 1 < args.length) {
+                options.optimizations = App.parseOptimizations(args[++i]);
+            } else if (args[i].equals("--cache") && i + 1 < args.length) {
+                cacheDir = new File(args[++i]);
+            } else if (args[i].startsWith("@")) {
+                roots.addAll(readManifest(Paths.get(args[i].substring(1))));
+            } else {
+                roots.add(Paths.get(args[i]));
+            }
+        }
+
+        if (roots.isEmpty()) {
+            System.err.println("usage: BatchCompiler [--jobs N] [--cache DIR] [-O | --opt LIST] <root>... | @manifest");
+            System.exit(1);
+        }
+
+        var compiler = new BatchCompiler(options, cacheDir);
+        boolean ok;
+        try {
+            ok = compiler.run(roots);
+        } finally {
+            compiler.shutdown();
+        }
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+}
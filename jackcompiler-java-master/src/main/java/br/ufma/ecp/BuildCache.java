@@ -0,0 +1,163 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.UUID;
+
+/*
+ * On-disk cache of compiled classes, keyed by a SHA-256 of the compiler
+ * version and the source bytes. An entry is the .vm text produced for that
+ * source, stored as <dir>/<key>.vm.
+ *
+ * The version is a hash of the compiler's own classes (of the jar, when it
+ * runs from one), so any rebuild that can change the generated code stops
+ * old entries from matching without anyone having to remember to bump it.
+ */
+public class BuildCache {
+
+    public static final String COMPILER_VERSION = compilerVersion();
+
+    private final Path dir;
+    private final String salt;
+
+    public BuildCache(Path dir) {
+        this(dir, "");
+    }
+
+    // salt lets callers fold compiler options that affect the output into the key
+    public BuildCache(Path dir, String salt) {
+        this.dir = dir;
+        this.salt = salt;
+    }
+
+    public String key(byte[] source) {
+        return key(ByteBuffer.wrap(source));
+    }
+
+    // hashes the bytes between position and limit, leaving the buffer as it was
+    public String key(ByteBuffer source) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(COMPILER_VERSION.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(salt.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(source.duplicate());
+            return hex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] hash) {
+        var hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static String compilerVersion() {
+        try {
+            var location = Path.of(BuildCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            var digest = MessageDigest.getInstance("SHA-256");
+            if (Files.isRegularFile(location)) {
+                digest.update(Files.readAllBytes(location));
+            } else {
+                List<Path> classes;
+                try (var walk = Files.walk(location)) {
+                    classes = walk.filter(p -> p.toString().endsWith(".class")).sorted().toList();
+                }
+                for (Path p : classes) {
+                    digest.update(location.relativize(p).toString().getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) 0);
+                    digest.update(Files.readAllBytes(p));
+                }
+            }
+            return "jackcompiler-" + hex(digest.digest()).substring(0, 16);
+        } catch (IOException | URISyntaxException | NoSuchAlgorithmException | RuntimeException e) {
+            // with no way to tell this build from another, share nothing between runs
+            return "jackcompiler-" + UUID.randomUUID();
+        }
+    }
+
+    // the names and sources of a program's classes, in order, so its cache can tell when any of them changes
+    static String digest(List<Path> sources) throws IOException {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            var file = MessageDigest.getInstance("SHA-256");
+            for (Path p : sources) {
+                digest.update(p.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(file.digest(Files.readAllBytes(p)));
+            }
+            return hex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // whether every source already has its entry, so a build would only restore outputs
+    boolean containsAll(List<Path> sources) throws IOException {
+        for (Path p : sources) {
+            if (!Files.isRegularFile(entry(key(Files.readAllBytes(p))))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Path entry(String key) {
+        return dir.resolve(key + ".vm");
+    }
+
+    /*
+     * Makes output hold the cached result for key. The existing file is kept
+     * when it already matches, otherwise it is restored from the cache.
+     * Returns false on a cache miss.
+     */
+    public boolean restore(String key, Path output) throws IOException {
+        var entry = entry(key);
+        if (!Files.isRegularFile(entry)) {
+            return false;
+        }
+        if (Files.isRegularFile(output) && Files.mismatch(entry, output) == -1) {
+            return true;
+        }
+        Files.copy(entry, output, StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+
+    // written to a temporary file first so parallel jobs never see half an entry
+    public void store(String key, String vmOutput) throws IOException {
+        Files.createDirectories(dir);
+        var tmp = Files.createTempFile(dir, key, ".tmp");
+        try {
+            Files.writeString(tmp, vmOutput, StandardCharsets.UTF_8);
+            Files.move(tmp, entry(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // same as store(key, String) for output that was streamed straight to a file
+    public void store(String key, Path vmFile) throws IOException {
+        Files.createDirectories(dir);
+        var tmp = Files.createTempFile(dir, key, ".tmp");
+        try {
+            Files.copy(vmFile, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, entry(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
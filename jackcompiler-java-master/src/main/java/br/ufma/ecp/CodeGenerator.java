@@ -0,0 +1,825 @@
+package br.ufma.ecp;
+
+import static br.ufma.ecp.token.TokenType.*;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import br.ufma.ecp.Parser.Optimization;
+import br.ufma.ecp.SymbolTable.Kind;
+import br.ufma.ecp.VMWriter.Command;
+import br.ufma.ecp.VMWriter.Segment;
+import br.ufma.ecp.token.TokenType;
+
+/*
+ * VM code generation, driven by the Parser in the order the source is read,
+ * or by Ast.emit when the parser builds a tree first.
+ *
+ * Expressions go through an operand stack that mirrors the VM stack. With
+ * FOLD on, constants stay on this stack without being pushed, and a trailing
+ * neg/not is held back, until an operator or a statement needs them; that is
+ * what lets 2 * 3 become push constant 6 and -(-x) become x. Without FOLD
+ * every operand is emitted as soon as it is seen, as it always was.
+ *
+ * With STRINGS on, a literal used inside a while loop gets a static of its
+ * own, after the declared ones, and is built once by a generated
+ * Class.strings:init function; a use pushes the static, calling the init
+ * function first if it has not run yet. Later uses of the same literal reuse
+ * the static; a literal that is only used outside loops is built in place,
+ * which is shorter when it runs once. Interned literals are shared, so a
+ * program that changes or disposes one sees it changed everywhere. A class
+ * interns at most MAX_INTERNED_STRINGS literals, or its share of the statics
+ * the whole program leaves free when the Parser has a SignatureIndex; the
+ * ones past that are built in place.
+ *
+ * With INTRINSICS on, the OS routines in INTRINSICS are written in place of
+ * their call, working on the arguments already pushed: Memory.peek/poke go
+ * through pointer 1 and that 0, Math.abs/min/max are a compare and a branch
+ * over temp 0 and 1.
+ */
+class CodeGenerator implements AstSink {
+
+    // what an operand stack entry holds
+    private static final byte CONST = 0; // value is known, nothing was emitted yet
+    private static final byte CODE = 1;  // the value is on the VM stack, except for a pending neg/not
+
+    // the Hack platform has 240 statics for the whole program
+    static final int STATIC_SEGMENT = 240;
+    // interned literals per class when nothing is known about the rest of the program
+    static final int MAX_INTERNED_STRINGS = 8;
+
+    // OS routine -> number of arguments, for the calls written inline
+    static final Map<String, Integer> INTRINSICS = Map.of(
+            "Memory.peek", 1,
+            "Memory.poke", 2,
+            "Math.abs", 1,
+            "Math.min", 2,
+            "Math.max", 2);
+
+    private final VMWriter vmWriter;
+    private boolean fold;
+    private boolean internStrings;
+    private boolean intrinsics;
+    private int maxInterned = MAX_INTERNED_STRINGS;
+
+    private String className;
+    private int nStatics;
+    // literal -> static index, in order of first use
+    private final Map<String, Integer> strings = new LinkedHashMap<>();
+
+    private byte[] kind = new byte[16];
+    private int[] value = new int[16];
+    private Command[] pending = new Command[16];
+    // when the code of an entry is one push, so it can be pushed again
+    private Segment[] pushSegment = new Segment[16];
+    private int[] pushIndex = new int[16];
+    // the operator a constant is the left operand of, see beginBinary
+    private TokenType[] operator = new TokenType[16];
+    private int top;
+
+    private int ifLabelNum = 0;
+    private int whileLabelNum = 0;
+    private int stringLabelNum = 0;
+    private int mathLabelNum = 0;
+    private int loopDepth = 0;
+
+    CodeGenerator(VMWriter vmWriter) {
+        this.vmWriter = vmWriter;
+    }
+
+    // forgets the last class, even one that failed halfway, keeping the stacks for the next
+    void reset() {
+        className = null;
+        nStatics = 0;
+        strings.clear();
+        top = 0;
+        startSubroutine();
+    }
+
+    // how many statics this class may take for literals, see SignatureIndex.stringsPerClass
+    void maxInternedStrings(int max) {
+        maxInterned = max;
+    }
+
+    void optimize(Set<Optimization> optimizations) {
+        fold = optimizations.contains(Optimization.FOLD);
+        internStrings = optimizations.contains(Optimization.STRINGS);
+        intrinsics = optimizations.contains(Optimization.INTRINSICS);
+    }
+
+    @Override
+    public void startClass(String className, int nStatics) {
+        this.className = className;
+        this.nStatics = nStatics;
+        strings.clear();
+    }
+
+    @Override
+    public void endClass() {
+        if (strings.isEmpty()) {
+            return;
+        }
+        vmWriter.writeFunction(className + ".strings:init", 0);
+        for (Map.Entry<String, Integer> literal : strings.entrySet()) {
+            newString(literal.getKey());
+            vmWriter.writePop(Segment.STATIC, literal.getValue());
+        }
+        vmWriter.writePush(Segment.CONST, 0);
+        vmWriter.writeReturn();
+    }
+
+    @Override
+    public void startSubroutine() {
+        ifLabelNum = 0;
+        whileLabelNum = 0;
+        stringLabelNum = 0;
+        mathLabelNum = 0;
+        loopDepth = 0;
+    }
+
+    static Segment kind2Segment(Kind kind) {
+        if (kind == Kind.STATIC)
+            return Segment.STATIC;
+        if (kind == Kind.FIELD)
+            return Segment.THIS;
+        if (kind == Kind.VAR)
+            return Segment.LOCAL;
+        if (kind == Kind.ARG)
+            return Segment.ARG;
+        return null;
+    }
+
+    @Override
+    public void function(String functionName, TokenType subroutineType, int nLocals, int nFields) {
+        vmWriter.writeFunction(functionName, nLocals);
+
+        if (subroutineType == CONSTRUCTOR) {
+            vmWriter.writePush(Segment.CONST, nFields);
+            vmWriter.writeCall("Memory.alloc", 1);
+            vmWriter.writePop(Segment.POINTER, 0);
+        }
+
+        if (subroutineType == METHOD) {
+            vmWriter.writePush(Segment.ARG, 0);
+            vmWriter.writePop(Segment.POINTER, 0);
+        }
+    }
+
+    // operand stack
+
+    private void push(byte k, int v) {
+        if (top == kind.length) {
+            var n = top * 2;
+            kind = Arrays.copyOf(kind, n);
+            value = Arrays.copyOf(value, n);
+            pending = Arrays.copyOf(pending, n);
+            pushSegment = Arrays.copyOf(pushSegment, n);
+            pushIndex = Arrays.copyOf(pushIndex, n);
+            operator = Arrays.copyOf(operator, n);
+        }
+        kind[top] = k;
+        value[top] = v;
+        pending[top] = null;
+        pushSegment[top] = null;
+        operator[top] = null;
+        top++;
+    }
+
+    private void pushCode() {
+        push(CODE, 0);
+    }
+
+    // the entry is exactly this one push
+    private void pushCode(Segment segment, int index) {
+        push(CODE, 0);
+        pushSegment[top - 1] = segment;
+        pushIndex[top - 1] = index;
+    }
+
+    // called before emitting anything that lands on top of the VM stack
+    private void beginCode() {
+        beginCodeAbove(top - 1);
+    }
+
+    /*
+     * Gets entries up to i ready for code to be emitted on top of them: the
+     * topmost entry on the VM stack gets its pending neg/not, and the
+     * constants above it, which are still waiting for their right operand,
+     * are pushed unless binary() can do better with them pushed second.
+     */
+    private void beginCodeAbove(int i) {
+        var j = i;
+        while (j >= 0 && kind[j] == CONST) {
+            j--;
+        }
+        if (j >= 0) {
+            flushPending(j);
+        }
+        for (int h = j + 1; h <= i; h++) {
+            if (!worthDeferring(operator[h], value[h])) {
+                writeConstant(value[h]);
+                kind[h] = CODE;
+                resetCode(h);
+            }
+        }
+    }
+
+    // c op x costs no more with c pushed after x, or gets cheaper
+    private static boolean worthDeferring(TokenType op, int c) {
+        if (op == null) {
+            return false;
+        }
+        switch (op) {
+            case PLUS:
+            case ASTERISK:
+            case AND:
+            case OR:
+            case EQ:
+            case LT:
+            case GT:
+                return true;
+            case MINUS:
+                return c == 0;
+            default:
+                return false;
+        }
+    }
+
+    private void flushPending(int i) {
+        if (pending[i] != null) {
+            vmWriter.writeArithmetic(pending[i]);
+            pending[i] = null;
+        }
+    }
+
+    private void writeConstant(int v) {
+        if (v >= 0) {
+            vmWriter.writePush(Segment.CONST, v);
+        } else if (v == -1) {
+            // the same sequence as 'true'
+            vmWriter.writePush(Segment.CONST, 0);
+            vmWriter.writeArithmetic(Command.NOT);
+        } else if (v == Short.MIN_VALUE) {
+            vmWriter.writePush(Segment.CONST, Short.MAX_VALUE);
+            vmWriter.writeArithmetic(Command.NOT);
+        } else {
+            vmWriter.writePush(Segment.CONST, -v);
+            vmWriter.writeArithmetic(Command.NEG);
+        }
+    }
+
+    // puts the top entry on the VM stack for good, e.g. at the end of an expression
+    @Override
+    public void materialize() {
+        var i = top - 1;
+        if (kind[i] == CONST) {
+            beginCodeAbove(i - 1);
+            writeConstant(value[i]);
+            kind[i] = CODE;
+            resetCode(i);
+        } else {
+            flushPending(i);
+        }
+    }
+
+    private void resetCode(int i) {
+        pending[i] = null;
+        pushSegment[i] = null;
+        operator[i] = null;
+    }
+
+    // terms
+
+    @Override
+    public void pushConstant(int v) {
+        if (fold) {
+            push(CONST, v);
+        } else {
+            beginCode();
+            vmWriter.writePush(Segment.CONST, v);
+            pushCode();
+        }
+    }
+
+    @Override
+    public void pushKeyword(TokenType type) {
+        if (fold) {
+            push(CONST, type == TRUE ? -1 : 0);
+            return;
+        }
+        beginCode();
+        vmWriter.writePush(Segment.CONST, 0);
+        if (type == TRUE)
+            vmWriter.writeArithmetic(Command.NOT);
+        pushCode();
+    }
+
+    @Override
+    public void pushString(String strValue) {
+        beginCode();
+        var slot = internStrings ? intern(strValue) : -1;
+        if (slot < 0) {
+            newString(strValue);
+        } else {
+            var label = "STRING_READY" + stringLabelNum++;
+            vmWriter.writePush(Segment.STATIC, slot);
+            vmWriter.writeIf(label);
+            vmWriter.writeCall(className + ".strings:init", 0);
+            vmWriter.writePop(Segment.TEMP, 0);
+            vmWriter.writeLabel(label);
+            vmWriter.writePush(Segment.STATIC, slot);
+        }
+        pushCode();
+    }
+
+    // the static holding the literal, -1 when it is not worth one or the class has run out of them
+    private int intern(String strValue) {
+        var slot = strings.get(strValue);
+        if (slot == null) {
+            if (loopDepth == 0 || strings.size() >= maxInterned) {
+                return -1;
+            }
+            slot = nStatics + strings.size();
+            strings.put(strValue, slot);
+        }
+        return slot;
+    }
+
+    private void newString(String strValue) {
+        vmWriter.writePush(Segment.CONST, strValue.length());
+        vmWriter.writeCall("String.new", 1);
+        for (int i = 0; i < strValue.length(); i++) {
+            vmWriter.writePush(Segment.CONST, strValue.charAt(i));
+            vmWriter.writeCall("String.appendChar", 2);
+        }
+    }
+
+    @Override
+    public void pushThis() {
+        beginCode();
+        vmWriter.writePush(Segment.POINTER, 0);
+        pushCode(Segment.POINTER, 0);
+    }
+
+    @Override
+    public void pushVariable(Segment segment, int index) {
+        beginCode();
+        vmWriter.writePush(segment, index);
+        pushCode(segment, index);
+    }
+
+    @Override
+    public void arrayRead(Segment segment, int index) {
+        address(segment, index);
+        vmWriter.writePop(Segment.POINTER, 1); // pop address pointer into pointer 1
+        vmWriter.writePush(Segment.THAT, 0);
+        pushCode();
+    }
+
+    @Override
+    public void arrayElement(Segment segment, int index) {
+        address(segment, index);
+        pushCode();
+    }
+
+    @Override
+    public void pushElement() {
+        beginCode();
+        vmWriter.writePush(Segment.THAT, 0);
+        pushCode();
+    }
+
+    // writes the address of the element, the index on top is taken off the operand stack
+    private void address(Segment segment, int index) {
+        if (fold && kind[top - 1] == CONST) {
+            var offset = value[--top];
+            beginCode();
+            vmWriter.writePush(segment, index);
+            if (offset != 0) {
+                writeConstant(offset);
+                vmWriter.writeArithmetic(Command.ADD);
+            }
+        } else {
+            materialize();
+            vmWriter.writePush(segment, index);
+            vmWriter.writeArithmetic(Command.ADD);
+            top--;
+        }
+    }
+
+    @Override
+    public void call(String functionName, int nArgs) {
+        if (nArgs > 0) {
+            materialize();
+        } else {
+            beginCode();
+        }
+        if (intrinsics && Integer.valueOf(nArgs).equals(INTRINSICS.get(functionName))) {
+            intrinsic(functionName);
+        } else {
+            vmWriter.writeCall(functionName, nArgs);
+        }
+        top -= nArgs;
+        pushCode();
+    }
+
+    // leaves on the stack what the routine would have returned
+    private void intrinsic(String functionName) {
+        switch (functionName) {
+            case "Memory.peek":
+                vmWriter.writePop(Segment.POINTER, 1);
+                vmWriter.writePush(Segment.THAT, 0);
+                break;
+            case "Memory.poke":
+                vmWriter.writePop(Segment.TEMP, 0);
+                vmWriter.writePop(Segment.POINTER, 1);
+                vmWriter.writePush(Segment.TEMP, 0);
+                vmWriter.writePop(Segment.THAT, 0);
+                // what a void OS routine returns
+                vmWriter.writePush(Segment.CONST, 0);
+                break;
+            case "Math.abs": {
+                var end = "MATH_END" + mathLabelNum++;
+                vmWriter.writePop(Segment.TEMP, 0);
+                vmWriter.writePush(Segment.TEMP, 0);
+                vmWriter.writePush(Segment.TEMP, 0);
+                vmWriter.writePush(Segment.CONST, 0);
+                vmWriter.writeArithmetic(Command.LT);
+                vmWriter.writeArithmetic(Command.NOT);
+                vmWriter.writeIf(end);
+                vmWriter.writeArithmetic(Command.NEG);
+                vmWriter.writeLabel(end);
+                break;
+            }
+            default: {
+                // min keeps the first argument unless it is greater, max unless it is less
+                var labelNum = mathLabelNum++;
+                vmWriter.writePop(Segment.TEMP, 1);
+                vmWriter.writePop(Segment.TEMP, 0);
+                vmWriter.writePush(Segment.TEMP, 0);
+                vmWriter.writePush(Segment.TEMP, 1);
+                vmWriter.writeArithmetic(functionName.equals("Math.min") ? Command.GT : Command.LT);
+                vmWriter.writeIf("MATH_SECOND" + labelNum);
+                vmWriter.writePush(Segment.TEMP, 0);
+                vmWriter.writeGoto("MATH_END" + labelNum);
+                vmWriter.writeLabel("MATH_SECOND" + labelNum);
+                vmWriter.writePush(Segment.TEMP, 1);
+                vmWriter.writeLabel("MATH_END" + labelNum);
+                break;
+            }
+        }
+    }
+
+    // operators
+
+    @Override
+    public void unary(TokenType op) {
+        var command = op == MINUS ? Command.NEG : Command.NOT;
+        var i = top - 1;
+        if (!fold) {
+            vmWriter.writeArithmetic(command);
+            return;
+        }
+        if (kind[i] == CONST) {
+            value[i] = command == Command.NEG ? (short) -value[i] : (short) ~value[i];
+            return;
+        }
+        pushSegment[i] = null;
+        if (pending[i] == command) {
+            // -(-x) is x, and so is ~(~x)
+            pending[i] = null;
+        } else {
+            flushPending(i);
+            pending[i] = command;
+        }
+    }
+
+    @Override
+    public void beginBinary(TokenType op) {
+        operator[top - 1] = op;
+    }
+
+    @Override
+    public void binary(TokenType op) {
+        if (!fold) {
+            operator(op);
+            top--;
+            return;
+        }
+        var r = top - 1;
+        var l = top - 2;
+        if (kind[l] == CONST && kind[r] == CONST) {
+            if (foldable(op, value[l], value[r])) {
+                value[l] = fold(op, value[l], value[r]);
+                operator[l] = null;
+                top--;
+                return;
+            }
+            // e.g. a division by zero, left for the program to hit at run time
+            beginCodeAbove(l - 1);
+            writeConstant(value[l]);
+            writeConstant(value[r]);
+            operator(op);
+        } else if (kind[r] == CONST) {
+            var c = value[r];
+            top--;
+            if (rightIdentity(op, c)) {
+                return;
+            }
+            flushPending(l);
+            if (op == ASTERISK && isPowerOfTwo(c)) {
+                doubleTop(l, c);
+            } else {
+                writeConstant(c);
+                operator(op);
+            }
+        } else if (kind[l] == CONST) {
+            var c = value[l];
+            moveDown(r, l);
+            top--;
+            if (leftIdentity(op, c)) {
+                return;
+            }
+            if (op == MINUS && c == 0) {
+                unary(MINUS);
+                return;
+            }
+            flushPending(l);
+            switch (op) {
+                case ASTERISK:
+                    if (isPowerOfTwo(c)) {
+                        doubleTop(l, c);
+                    } else {
+                        writeConstant(c);
+                        operator(op);
+                    }
+                    break;
+                case PLUS:
+                case AND:
+                case OR:
+                case EQ:
+                    // commutative, the constant can go second
+                    writeConstant(c);
+                    operator(op);
+                    break;
+                case MINUS:
+                    // c - x = -x + c
+                    vmWriter.writeArithmetic(Command.NEG);
+                    writeConstant(c);
+                    vmWriter.writeArithmetic(Command.ADD);
+                    break;
+                case LT:
+                    writeConstant(c);
+                    vmWriter.writeArithmetic(Command.GT);
+                    break;
+                case GT:
+                    writeConstant(c);
+                    vmWriter.writeArithmetic(Command.LT);
+                    break;
+                default:
+                    vmWriter.writePop(Segment.TEMP, 0);
+                    writeConstant(c);
+                    vmWriter.writePush(Segment.TEMP, 0);
+                    operator(op);
+            }
+        } else {
+            flushPending(r);
+            operator(op);
+            top--;
+        }
+        kind[top - 1] = CODE;
+        resetCode(top - 1);
+    }
+
+    private void moveDown(int from, int to) {
+        kind[to] = kind[from];
+        value[to] = value[from];
+        pending[to] = pending[from];
+        pushSegment[to] = pushSegment[from];
+        pushIndex[to] = pushIndex[from];
+        operator[to] = operator[from];
+    }
+
+    private static boolean isPowerOfTwo(int c) {
+        return c > 1 && (c & (c - 1)) == 0;
+    }
+
+    // x * 2^k as k additions, much cheaper than a call to Math.multiply
+    private void doubleTop(int i, int c) {
+        for (; c > 1; c >>= 1) {
+            if (pushSegment[i] != null) {
+                vmWriter.writePush(pushSegment[i], pushIndex[i]);
+                pushSegment[i] = null;
+            } else {
+                // temp 0 is free here, it only carries values between adjacent instructions
+                vmWriter.writePop(Segment.TEMP, 0);
+                vmWriter.writePush(Segment.TEMP, 0);
+                vmWriter.writePush(Segment.TEMP, 0);
+            }
+            vmWriter.writeArithmetic(Command.ADD);
+        }
+    }
+
+    // x + 0, x - 0, x * 1, x / 1, x | 0, x & -1
+    private static boolean rightIdentity(TokenType op, int c) {
+        switch (op) {
+            case PLUS:
+            case MINUS:
+            case OR:
+                return c == 0;
+            case ASTERISK:
+            case SLASH:
+                return c == 1;
+            case AND:
+                return c == -1;
+            default:
+                return false;
+        }
+    }
+
+    // 0 + x, 1 * x, 0 | x, -1 & x
+    private static boolean leftIdentity(TokenType op, int c) {
+        switch (op) {
+            case PLUS:
+            case OR:
+                return c == 0;
+            case ASTERISK:
+                return c == 1;
+            case AND:
+                return c == -1;
+            default:
+                return false;
+        }
+    }
+
+    // the Hack platform is 16 bits wide, so are its constants
+    static boolean foldable(TokenType op, int a, int b) {
+        if (op == SLASH) {
+            // Math.divide works on magnitudes, -32768 has none in 16 bits
+            return b != 0 && a != Short.MIN_VALUE && b != Short.MIN_VALUE;
+        }
+        return op == PLUS || op == MINUS || op == ASTERISK || op == AND || op == OR
+            || op == LT || op == GT || op == EQ;
+    }
+
+    static int fold(TokenType op, int a, int b) {
+        switch (op) {
+            case PLUS:
+                return (short) (a + b);
+            case MINUS:
+                return (short) (a - b);
+            case ASTERISK:
+                return (short) (a * b);
+            case SLASH:
+                return (short) (a / b);
+            case AND:
+                return a & b;
+            case OR:
+                return a | b;
+            case LT:
+                return a < b ? -1 : 0;
+            case GT:
+                return a > b ? -1 : 0;
+            case EQ:
+                return a == b ? -1 : 0;
+            default:
+                throw new IllegalArgumentException(op.name());
+        }
+    }
+
+    private void operator(TokenType type) {
+        if (type == ASTERISK) {
+            vmWriter.writeCall("Math.multiply", 2);
+        } else if (type == SLASH) {
+            vmWriter.writeCall("Math.divide", 2);
+        } else {
+            vmWriter.writeArithmetic(typeOperator(type));
+        }
+    }
+
+    private Command typeOperator(TokenType type) {
+        if (type == PLUS)
+            return Command.ADD;
+        if (type == MINUS)
+            return Command.SUB;
+        if (type == LT)
+            return Command.LT;
+        if (type == GT)
+            return Command.GT;
+        if (type == EQ)
+            return Command.EQ;
+        if (type == AND)
+            return Command.AND;
+        if (type == OR)
+            return Command.OR;
+        return null;
+    }
+
+    // statements
+
+    @Override
+    public void let(Segment segment, int index) {
+        materialize();
+        vmWriter.writePop(segment, index);
+        top--;
+    }
+
+    @Override
+    public void letArray(Segment segment, int index) {
+        materialize();
+        // the value may have used pointer 1, so it is set only now
+        vmWriter.writePop(Segment.TEMP, 0);
+        vmWriter.writePop(Segment.POINTER, 1);
+        vmWriter.writePush(Segment.TEMP, 0);
+        vmWriter.writePop(Segment.THAT, 0);
+        top -= 2;
+    }
+
+    @Override
+    public void pointElement() {
+        materialize();
+        vmWriter.writePop(Segment.POINTER, 1);
+        top--;
+    }
+
+    @Override
+    public void letElement() {
+        materialize();
+        vmWriter.writePop(Segment.THAT, 0);
+        top--;
+    }
+
+    @Override
+    public void doStatement() {
+        vmWriter.writePop(Segment.TEMP, 0);
+        top--;
+    }
+
+    @Override
+    public void returnStatement(boolean hasValue) {
+        if (hasValue) {
+            materialize();
+            top--;
+        } else {
+            vmWriter.writePush(Segment.CONST, 0);
+        }
+        vmWriter.writeReturn();
+    }
+
+    @Override
+    public int ifStart() {
+        var labelNum = ifLabelNum++;
+        materialize();
+        top--;
+        vmWriter.writeIf("IF_TRUE" + labelNum);
+        vmWriter.writeGoto("IF_FALSE" + labelNum);
+        vmWriter.writeLabel("IF_TRUE" + labelNum);
+        return labelNum;
+    }
+
+    @Override
+    public void ifElse(int labelNum) {
+        vmWriter.writeGoto("IF_END" + labelNum);
+        vmWriter.writeLabel("IF_FALSE" + labelNum);
+    }
+
+    @Override
+    public void ifEnd(int labelNum, boolean hasElse) {
+        if (hasElse) {
+            vmWriter.writeLabel("IF_END" + labelNum);
+        } else {
+            vmWriter.writeLabel("IF_FALSE" + labelNum);
+        }
+    }
+
+    @Override
+    public int whileStart() {
+        var labelNum = whileLabelNum++;
+        loopDepth++;
+        vmWriter.writeLabel("WHILE_EXP" + labelNum);
+        return labelNum;
+    }
+
+    @Override
+    public void whileCondition(int labelNum) {
+        unary(NOT);
+        materialize();
+        top--;
+        vmWriter.writeIf("WHILE_END" + labelNum);
+    }
+
+    @Override
+    public void whileEnd(int labelNum) {
+        vmWriter.writeGoto("WHILE_EXP" + labelNum); // Go back to labelTrue and check condition
+        vmWriter.writeLabel("WHILE_END" + labelNum); // Breaks out of while loop because ~(condition) is true
+        loopDepth--;
+    }
+
+    @Override
+    public void loopEnd(int labelNum) {
+        vmWriter.writeGoto("WHILE_EXP" + labelNum);
+        loopDepth--;
+    }
+}
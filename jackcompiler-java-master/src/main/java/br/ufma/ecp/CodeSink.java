@@ -0,0 +1,79 @@
+package br.ufma.ecp;
+
+import br.ufma.ecp.VMWriter.Segment;
+import br.ufma.ecp.token.TokenType;
+
+/*
+ * What the Parser reports about a class as it reads it, in source order.
+ * CodeGenerator turns it into VM code on the spot; AstBuilder records it as
+ * an Ast, which Ast.emit plays back into a CodeGenerator later.
+ *
+ * Expressions are reported bottom-up, like the VM stack they end up on: the
+ * operands first, then the operator, call or statement that consumes them.
+ * Variables arrive already resolved to a segment and an index.
+ */
+interface CodeSink {
+
+    // after the class variables, so nStatics is final
+    void startClass(String className, int nStatics);
+
+    void endClass();
+
+    void startSubroutine();
+
+    void function(String functionName, TokenType subroutineType, int nLocals, int nFields);
+
+    // the value of a whole expression is needed now (an argument, a let)
+    void materialize();
+
+    void pushConstant(int value);
+
+    // true, false and null
+    void pushKeyword(TokenType type);
+
+    void pushString(String value);
+
+    void pushThis();
+
+    void pushVariable(Segment segment, int index);
+
+    // the index is on top
+    void arrayRead(Segment segment, int index);
+
+    // the arguments, receiver included, are the nArgs values on top
+    void call(String functionName, int nArgs);
+
+    void unary(TokenType op);
+
+    // the left operand is on top, the right one comes next
+    void beginBinary(TokenType op);
+
+    void binary(TokenType op);
+
+    void let(Segment segment, int index);
+
+    // the index is on top; leaves the address of the element instead
+    void arrayElement(Segment segment, int index);
+
+    // the address of the element and the value are the two values on top
+    void letArray(Segment segment, int index);
+
+    void doStatement();
+
+    void returnStatement(boolean hasValue);
+
+    // the condition is on top; the result is handed back to ifElse/ifEnd
+    int ifStart();
+
+    void ifElse(int id);
+
+    void ifEnd(int id, boolean hasElse);
+
+    // the result is handed back to whileCondition/whileEnd
+    int whileStart();
+
+    // the condition is on top
+    void whileCondition(int id);
+
+    void whileEnd(int id);
+}
@@ -0,0 +1,94 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Load test for CompileServer: opens one connection per client thread,
+ * sends the same source repeatedly and reports requests per second and
+ * latency percentiles.
+ *
+ * usage: CompileLoadTest [--port N | --unix PATH] [--clients C] [--requests R] file.jack
+ */
+public class CompileLoadTest {
+
+    private static long[] runClient(SocketAddress address, byte[] source, int requests) throws IOException {
+        var latencies = new long[requests];
+        try (var client = new CompileServer.Client(address)) {
+            for (int i = 0; i < requests; i++) {
+                var start = System.nanoTime();
+                var response = client.compile(source);
+                latencies[i] = System.nanoTime() - start;
+                if (!response.ok()) {
+                    throw new IOException("compile failed: " + response.text());
+                }
+            }
+        }
+        return latencies;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        var index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        var clients = 4;
+        var requests = 1000;
+        String file = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--clients") && i + 1 < args.length) {
+                clients = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--requests") && i + 1 < args.length) {
+                requests = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--port") || args[i].equals("--unix")) {
+                i++; // handled by parseAddress
+            } else {
+                file = args[i];
+            }
+        }
+
+        if (file == null) {
+            System.err.println("usage: CompileLoadTest [--port N | --unix PATH] [--clients C] [--requests R] file.jack");
+            System.exit(1);
+        }
+
+        var address = CompileServer.parseAddress(args);
+        var source = Files.readAllBytes(Paths.get(file));
+        var perClient = requests;
+
+        var pool = Executors.newFixedThreadPool(clients);
+        List<Future<long[]>> futures = new ArrayList<>();
+        var start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            Callable<long[]> task = () -> runClient(address, source, perClient);
+            futures.add(pool.submit(task));
+        }
+
+        var all = new long[clients * requests];
+        var pos = 0;
+        for (Future<long[]> future : futures) {
+            var latencies = future.get();
+            System.arraycopy(latencies, 0, all, pos, latencies.length);
+            pos += latencies.length;
+        }
+        var elapsed = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        Arrays.sort(all);
+        System.out.printf("%d clients x %d requests in %.2f s: %.0f req/s%n",
+                clients, requests, elapsed, all.length / elapsed);
+        System.out.printf("latency ms: p50 %.3f  p90 %.3f  p99 %.3f  max %.3f%n",
+                percentile(all, 50), percentile(all, 90), percentile(all, 99), percentile(all, 100));
+    }
+}
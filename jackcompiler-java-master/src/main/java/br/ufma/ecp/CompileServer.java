@@ -0,0 +1,201 @@
+package br.ufma.ecp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Local compile server: listens on a loopback TCP port or on a Unix domain
+ * socket and compiles Jack source sent by clients.
+ *
+ * usage: CompileServer [--port N | --unix PATH]
+ *
+ * Protocol (all integers big-endian), any number of requests per connection:
+ *   request:  int length, length bytes of Jack source
+ *   response: byte status (STATUS_OK or STATUS_ERROR), int length,
+ *             length bytes of UTF-8 text (VM code or the error message)
+ */
+public class CompileServer {
+
+    public static final int DEFAULT_PORT = 7777;
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_ERROR = 1;
+    static final int MAX_REQUEST = 64 * 1024 * 1024;
+
+    private final ServerSocketChannel server;
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+
+    public CompileServer(SocketAddress address) throws IOException {
+        if (address instanceof UnixDomainSocketAddress unix) {
+            Files.deleteIfExists(unix.getPath());
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            server = ServerSocketChannel.open();
+        }
+        server.bind(address);
+    }
+
+    public SocketAddress address() throws IOException {
+        return server.getLocalAddress();
+    }
+
+    static void writeFrame(DataOutputStream out, byte status, byte[] payload) throws IOException {
+        out.writeByte(status);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.flush();
+    }
+
+    /*
+     * Serves one connection. The receive buffer and the parser belong to the
+     * connection: the buffer only grows and the parser is reset for each
+     * request, so steady-state requests allocate no new input array, symbol
+     * table, generator or VM buffer; the parser scans just the bytes of the
+     * current request.
+     */
+    private void serve(SocketChannel channel) {
+        try (channel;
+                var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+                var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            var buffer = new byte[8192];
+            Parser parser = null;
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (length < 0 || length > MAX_REQUEST) {
+                    writeFrame(out, STATUS_ERROR, ("request too large: " + length).getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                if (length > buffer.length) {
+                    buffer = new byte[Math.max(length, buffer.length * 2)];
+                }
+                in.readFully(buffer, 0, length);
+
+                try {
+                    if (parser == null) {
+                        parser = new Parser(buffer, length, Parser.Output.VM);
+                    } else {
+                        parser.reset(buffer, length);
+                    }
+                    parser.parse();
+                    writeFrame(out, STATUS_OK, parser.VMOutput().getBytes(StandardCharsets.UTF_8));
+                } catch (RuntimeException e) {
+                    var message = e.getMessage() != null ? e.getMessage() : e.toString();
+                    writeFrame(out, STATUS_ERROR, message.getBytes(StandardCharsets.UTF_8));
+                } catch (StackOverflowError e) {
+                    // a deeply nested expression; the stack is unwound by now, the worker carries on
+                    writeFrame(out, STATUS_ERROR, "too deeply nested".getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("connection closed: " + e.getMessage());
+        }
+    }
+
+    // accepts connections until the server is closed, each one on its own worker
+    public void run() throws IOException {
+        while (server.isOpen()) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (IOException e) {
+                if (!server.isOpen()) {
+                    break;
+                }
+                throw e;
+            }
+            if (!(server.getLocalAddress() instanceof UnixDomainSocketAddress)) {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+            pool.execute(() -> serve(channel));
+        }
+    }
+
+    public void close() throws IOException {
+        server.close();
+        pool.shutdown();
+    }
+
+    static SocketAddress parseAddress(String[] args) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals("--port")) {
+                return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[i + 1]));
+            }
+            if (args[i].equals("--unix")) {
+                return UnixDomainSocketAddress.of(args[i + 1]);
+            }
+        }
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), DEFAULT_PORT);
+    }
+
+    public static void main(String[] args) throws IOException {
+        var server = new CompileServer(parseAddress(args));
+        System.out.println("listening on " + server.address());
+        server.run();
+    }
+
+    /*
+     * Client side of the protocol, used by the load test. One Client is one
+     * connection and must not be shared between threads.
+     */
+    public static class Client implements AutoCloseable {
+
+        public record Response(boolean ok, String text) {
+        }
+
+        private final SocketChannel channel;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        public Client(SocketAddress address) throws IOException {
+            channel = address instanceof UnixDomainSocketAddress
+                    ? SocketChannel.open(StandardProtocolFamily.UNIX)
+                    : SocketChannel.open();
+            channel.connect(address);
+            if (!(address instanceof UnixDomainSocketAddress)) {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+            InputStream is = Channels.newInputStream(channel);
+            OutputStream os = Channels.newOutputStream(channel);
+            in = new DataInputStream(new BufferedInputStream(is));
+            out = new DataOutputStream(new BufferedOutputStream(os));
+        }
+
+        public Response compile(byte[] source) throws IOException {
+            out.writeInt(source.length);
+            out.write(source);
+            out.flush();
+            var status = in.readByte();
+            var text = new byte[in.readInt()];
+            in.readFully(text);
+            return new Response(status == STATUS_OK, new String(text, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
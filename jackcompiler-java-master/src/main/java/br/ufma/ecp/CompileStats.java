@@ -0,0 +1,538 @@
+package br.ufma.ecp;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.WritableByteChannel;
+
+import br.ufma.ecp.token.Token;
+import br.ufma.ecp.token.TokenStream;
+import br.ufma.ecp.token.TokenType;
+import br.ufma.ecp.VMWriter.Command;
+import br.ufma.ecp.VMWriter.Segment;
+
+/*
+ * Where the time of one compilation (or, after add(), of a whole run) went.
+ *
+ * The phases are measured by wrapping the scanner, the symbol table, the
+ * code sink and the VM writer in the timed versions below, so a compilation
+ * only pays for the clock reads when stats were asked for (App --stats or a
+ * JFR recording). Codegen is every call into the code sink (folding, operand
+ * deferral, building the Ast) plus what runs after the class is read: the
+ * INLINE and DCE passes, Ast.emit and the peephole pass at the last flush.
+ * Parsing has no wrapper of its own: it is whatever is left of the parser's
+ * time once the other phases are taken out.
+ */
+class CompileStats {
+
+    private static final Segment[] SEGMENTS = Segment.values();
+    private static final Command[] COMMANDS = Command.values();
+
+    // instruction kinds, by index: push per segment, pop per segment, each command, then the rest
+    private static final int POP = SEGMENTS.length;
+    private static final int ARITHMETIC = 2 * SEGMENTS.length;
+    private static final int LABEL = ARITHMETIC + COMMANDS.length;
+    private static final int GOTO = LABEL + 1;
+    private static final int IF_GOTO = LABEL + 2;
+    private static final int CALL = LABEL + 3;
+    private static final int FUNCTION = LABEL + 4;
+    private static final int RETURN = LABEL + 5;
+    static final String[] INSTRUCTIONS = instructionNames();
+
+    private static String[] instructionNames() {
+        var names = new String[RETURN + 1];
+        for (Segment s : SEGMENTS) {
+            names[s.ordinal()] = "push " + s.value;
+            names[POP + s.ordinal()] = "pop " + s.value;
+        }
+        for (Command c : COMMANDS) {
+            names[ARITHMETIC + c.ordinal()] = c.name().toLowerCase();
+        }
+        names[LABEL] = "label";
+        names[GOTO] = "goto";
+        names[IF_GOTO] = "if-goto";
+        names[CALL] = "call";
+        names[FUNCTION] = "function";
+        names[RETURN] = "return";
+        return names;
+    }
+
+    int files;
+    int upToDate;
+    long sourceBytes;
+    long tokens;
+    long totalNanos;
+    long scanNanos;
+    long parseNanos;
+    long symbolNanos;
+    long codegenNanos;
+    // reading the source and writing the .vm, cache lookups included
+    long ioNanos;
+    // -1 when the JVM cannot tell
+    long allocatedBytes;
+    final long[] instructions = new long[INSTRUCTIONS.length];
+    // instructions the peephole pass took out, not counted in instructions
+    long peepholeRemoved;
+
+    long instructionCount() {
+        long n = 0;
+        for (long count : instructions) {
+            n += count;
+        }
+        return n;
+    }
+
+    void add(CompileStats other) {
+        files += other.files;
+        upToDate += other.upToDate;
+        sourceBytes += other.sourceBytes;
+        tokens += other.tokens;
+        totalNanos += other.totalNanos;
+        scanNanos += other.scanNanos;
+        parseNanos += other.parseNanos;
+        symbolNanos += other.symbolNanos;
+        codegenNanos += other.codegenNanos;
+        ioNanos += other.ioNanos;
+        allocatedBytes = allocatedBytes < 0 || other.allocatedBytes < 0 ? -1 : allocatedBytes + other.allocatedBytes;
+        for (int i = 0; i < instructions.length; i++) {
+            instructions[i] += other.instructions[i];
+        }
+        peepholeRemoved += other.peepholeRemoved;
+    }
+
+    // codegen that is not a call into the code sink, such as the passes over an Ast; I/O stays I/O
+    void codegen(Runnable work) {
+        var ioAtStart = ioNanos;
+        var start = System.nanoTime();
+        try {
+            work.run();
+        } finally {
+            codegenNanos += System.nanoTime() - start - (ioNanos - ioAtStart);
+        }
+    }
+
+    // bytes allocated so far by the current thread, or -1 when not supported
+    static long allocatedByThisThread() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+            return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+
+    // one line per file
+    void print(String name, PrintStream out) {
+        var seconds = totalNanos / 1e9;
+        out.printf("stats %s: %s ms (scan %s, parse %s, symbols %s, codegen %s, io %s), "
+                + "%d tokens, %.0f tokens/s, %s allocated, %d instructions%n",
+                name, millis(totalNanos), millis(scanNanos), millis(parseNanos), millis(symbolNanos),
+                millis(codegenNanos), millis(ioNanos), tokens, seconds > 0 ? tokens / seconds : 0,
+                allocatedBytes < 0 ? "?" : allocatedBytes / 1024 + " KB", instructionCount());
+    }
+
+    // the run as a whole, with the instructions broken down by kind
+    void printSummary(PrintStream out) {
+        out.printf("stats total: %d files (%d up to date), %d bytes of source%n", files, upToDate, sourceBytes);
+        print("total", out);
+        if (peepholeRemoved > 0) {
+            out.printf("  %-16s %d%n", "peephole removed", peepholeRemoved);
+        }
+        for (int i = 0; i < instructions.length; i++) {
+            if (instructions[i] != 0) {
+                out.printf("  %-16s %d%n", INSTRUCTIONS[i], instructions[i]);
+            }
+        }
+    }
+
+    /*
+     * A JFR event per compiled file, so slow classes show up in a recording:
+     *   java -XX:StartFlightRecording=filename=build.jfr ... App src/
+     *   jfr print --events br.ufma.ecp.Compile build.jfr
+     */
+    @jdk.jfr.Name("br.ufma.ecp.Compile")
+    @jdk.jfr.Label("Jack Compile")
+    @jdk.jfr.Category("Jack Compiler")
+    @jdk.jfr.StackTrace(false)
+    static class CompileEvent extends jdk.jfr.Event {
+        @jdk.jfr.Label("File")
+        String file;
+        @jdk.jfr.Label("Up To Date")
+        boolean upToDate;
+        @jdk.jfr.Label("Source Size")
+        @jdk.jfr.DataAmount
+        long sourceBytes;
+        @jdk.jfr.Label("Tokens")
+        long tokens;
+        @jdk.jfr.Label("Scan Time")
+        @jdk.jfr.Timespan
+        long scanTime;
+        @jdk.jfr.Label("Parse Time")
+        @jdk.jfr.Timespan
+        long parseTime;
+        @jdk.jfr.Label("Symbol Time")
+        @jdk.jfr.Timespan
+        long symbolTime;
+        @jdk.jfr.Label("Codegen Time")
+        @jdk.jfr.Timespan
+        long codegenTime;
+        @jdk.jfr.Label("I/O Time")
+        @jdk.jfr.Timespan
+        long ioTime;
+        @jdk.jfr.Label("Allocated")
+        @jdk.jfr.DataAmount
+        long allocated;
+        @jdk.jfr.Label("VM Instructions")
+        long instructions;
+
+        void set(CompileStats stats) {
+            upToDate = stats.upToDate > 0;
+            sourceBytes = stats.sourceBytes;
+            tokens = stats.tokens;
+            scanTime = stats.scanNanos;
+            parseTime = stats.parseNanos;
+            symbolTime = stats.symbolNanos;
+            codegenTime = stats.codegenNanos;
+            ioTime = stats.ioNanos;
+            allocated = stats.allocatedBytes;
+            instructions = stats.instructionCount();
+        }
+    }
+
+    // counts tokens and the time spent producing them
+    static class TimedTokens implements TokenStream {
+        private final TokenStream tokens;
+        private final CompileStats stats;
+
+        TimedTokens(TokenStream tokens, CompileStats stats) {
+            this.tokens = tokens;
+            this.stats = stats;
+        }
+
+        @Override
+        public Token nextToken() {
+            var start = System.nanoTime();
+            var tk = tokens.nextToken();
+            stats.scanNanos += System.nanoTime() - start;
+            stats.tokens++;
+            return tk;
+        }
+    }
+
+    static class TimedSymbolTable extends SymbolTable {
+        private final CompileStats stats;
+
+        TimedSymbolTable(CompileStats stats) {
+            this.stats = stats;
+        }
+
+        @Override
+        void define(String name, String type, Kind kind) {
+            var start = System.nanoTime();
+            try {
+                super.define(name, type, kind);
+            } finally {
+                stats.symbolNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public Symbol resolve(String name) {
+            var start = System.nanoTime();
+            var symbol = super.resolve(name);
+            stats.symbolNanos += System.nanoTime() - start;
+            return symbol;
+        }
+    }
+
+    /*
+     * Times every call into the code generator (or the AstBuilder in front of
+     * it) as codegen. Draining the VM buffer into the channel is I/O, and is
+     * taken out of the codegen time of the call that happened to trigger it.
+     */
+    static class TimedCodeSink implements CodeSink {
+        private final CodeSink sink;
+        private final CompileStats stats;
+        private long start;
+        private long ioAtStart;
+
+        TimedCodeSink(CodeSink sink, CompileStats stats) {
+            this.sink = sink;
+            this.stats = stats;
+        }
+
+        private void begin() {
+            ioAtStart = stats.ioNanos;
+            start = System.nanoTime();
+        }
+
+        private void end() {
+            stats.codegenNanos += System.nanoTime() - start - (stats.ioNanos - ioAtStart);
+        }
+
+        @Override
+        public void startClass(String className, int nStatics) {
+            begin();
+            sink.startClass(className, nStatics);
+            end();
+        }
+
+        @Override
+        public void endClass() {
+            begin();
+            sink.endClass();
+            end();
+        }
+
+        @Override
+        public void startSubroutine() {
+            begin();
+            sink.startSubroutine();
+            end();
+        }
+
+        @Override
+        public void function(String functionName, TokenType subroutineType, int nLocals, int nFields) {
+            begin();
+            sink.function(functionName, subroutineType, nLocals, nFields);
+            end();
+        }
+
+        @Override
+        public void materialize() {
+            begin();
+            sink.materialize();
+            end();
+        }
+
+        @Override
+        public void pushConstant(int value) {
+            begin();
+            sink.pushConstant(value);
+            end();
+        }
+
+        @Override
+        public void pushKeyword(TokenType type) {
+            begin();
+            sink.pushKeyword(type);
+            end();
+        }
+
+        @Override
+        public void pushString(String value) {
+            begin();
+            sink.pushString(value);
+            end();
+        }
+
+        @Override
+        public void pushThis() {
+            begin();
+            sink.pushThis();
+            end();
+        }
+
+        @Override
+        public void pushVariable(Segment segment, int index) {
+            begin();
+            sink.pushVariable(segment, index);
+            end();
+        }
+
+        @Override
+        public void arrayRead(Segment segment, int index) {
+            begin();
+            sink.arrayRead(segment, index);
+            end();
+        }
+
+        @Override
+        public void call(String functionName, int nArgs) {
+            begin();
+            sink.call(functionName, nArgs);
+            end();
+        }
+
+        @Override
+        public void unary(TokenType op) {
+            begin();
+            sink.unary(op);
+            end();
+        }
+
+        @Override
+        public void beginBinary(TokenType op) {
+            begin();
+            sink.beginBinary(op);
+            end();
+        }
+
+        @Override
+        public void binary(TokenType op) {
+            begin();
+            sink.binary(op);
+            end();
+        }
+
+        @Override
+        public void let(Segment segment, int index) {
+            begin();
+            sink.let(segment, index);
+            end();
+        }
+
+        @Override
+        public void arrayElement(Segment segment, int index) {
+            begin();
+            sink.arrayElement(segment, index);
+            end();
+        }
+
+        @Override
+        public void letArray(Segment segment, int index) {
+            begin();
+            sink.letArray(segment, index);
+            end();
+        }
+
+        @Override
+        public void doStatement() {
+            begin();
+            sink.doStatement();
+            end();
+        }
+
+        @Override
+        public void returnStatement(boolean hasValue) {
+            begin();
+            sink.returnStatement(hasValue);
+            end();
+        }
+
+        @Override
+        public int ifStart() {
+            begin();
+            var id = sink.ifStart();
+            end();
+            return id;
+        }
+
+        @Override
+        public void ifElse(int id) {
+            begin();
+            sink.ifElse(id);
+            end();
+        }
+
+        @Override
+        public void ifEnd(int id, boolean hasElse) {
+            begin();
+            sink.ifEnd(id, hasElse);
+            end();
+        }
+
+        @Override
+        public int whileStart() {
+            begin();
+            var id = sink.whileStart();
+            end();
+            return id;
+        }
+
+        @Override
+        public void whileCondition(int id) {
+            begin();
+            sink.whileCondition(id);
+            end();
+        }
+
+        @Override
+        public void whileEnd(int id) {
+            begin();
+            sink.whileEnd(id);
+            end();
+        }
+    }
+
+    /*
+     * Counts instructions by kind and times draining the buffer into the
+     * channel as I/O. Encoding runs inside the code sink calls, which are
+     * timed as codegen by TimedCodeSink.
+     */
+    static class TimedVMWriter extends VMWriter {
+        private final CompileStats stats;
+
+        TimedVMWriter(WritableByteChannel out, CompileStats stats) {
+            super(out);
+            this.stats = stats;
+        }
+
+        private void count(int kind) {
+            stats.instructions[kind]++;
+        }
+
+        @Override
+        public void flush() {
+            var t = System.nanoTime();
+            super.flush();
+            stats.ioNanos += System.nanoTime() - t;
+        }
+
+        @Override
+        void writePush(Segment segment, int index) {
+            count(segment.ordinal());
+            super.writePush(segment, index);
+        }
+
+        @Override
+        void writePop(Segment segment, int index) {
+            count(POP + segment.ordinal());
+            super.writePop(segment, index);
+        }
+
+        @Override
+        void writeArithmetic(Command command) {
+            count(ARITHMETIC + command.ordinal());
+            super.writeArithmetic(command);
+        }
+
+        @Override
+        void writeLabel(String label) {
+            count(LABEL);
+            super.writeLabel(label);
+        }
+
+        @Override
+        void writeGoto(String label) {
+            count(GOTO);
+            super.writeGoto(label);
+        }
+
+        @Override
+        void writeIf(String label) {
+            count(IF_GOTO);
+            super.writeIf(label);
+        }
+
+        @Override
+        void writeCall(String name, int nArgs) {
+            count(CALL);
+            super.writeCall(name, nArgs);
+        }
+
+        @Override
+        void writeFunction(String name, int nLocals) {
+            count(FUNCTION);
+            super.writeFunction(name, nLocals);
+        }
+
+        @Override
+        void writeReturn() {
+            count(RETURN);
+            super.writeReturn();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package br.ufma.ecp;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/*
+ * Keeps the JVM running and recompiles .jack files of a directory as they
+ * change (App --watch). Only the files named by the watch events are
+ * recompiled; the rest of the directory is left alone, unless the events
+ * overflowed and so may have lost some names.
+ */
+public class CompileWatcher {
+
+    private final Path dir;
+    private final Path onlyFile;
+    private final App.Options options;
+
+    // onlyFile restricts the watcher to one file of dir, or null for every .jack file
+    CompileWatcher(Path dir, Path onlyFile, App.Options options) {
+        this.dir = dir;
+        this.onlyFile = onlyFile;
+        this.options = options;
+    }
+
+    private boolean wanted(Path file) {
+        if (onlyFile != null) {
+            return file.equals(onlyFile);
+        }
+        return file.getFileName().toString().endsWith(".jack");
+    }
+
+    private void recompile(Path file) {
+        var start = System.nanoTime();
+        var result = App.compile(file.toFile(), options);
+        var micros = (System.nanoTime() - start) / 1000;
+        if (result.error() != null) {
+            System.err.println(result.inputFileName() + ": " + result.error());
+        } else if (result.upToDate()) {
+            System.out.println("up to date " + result.inputFileName());
+        } else {
+            System.out.printf("compiled %s in %d.%03d ms%n", result.inputFileName(), micros / 1000, micros % 1000);
+        }
+        if (result.stats() != null && options.stats) {
+            result.stats().print(result.inputFileName(), System.out);
+        }
+    }
+
+    // the files to recompile for a batch of events; editors usually fire several per save, so each comes once
+    Set<Path> changed(List<WatchEvent<?>> events) {
+        var changed = new TreeSet<Path>();
+        for (WatchEvent<?> event : events) {
+            if (event.kind() == OVERFLOW) {
+                // events were dropped, any file may have changed
+                for (File f : App.jackFiles(dir.toFile())) {
+                    if (wanted(f.toPath())) {
+                        changed.add(f.toPath());
+                    }
+                }
+                continue;
+            }
+            var file = dir.resolve((Path) event.context());
+            if (wanted(file) && file.toFile().isFile()) {
+                changed.add(file);
+            }
+        }
+        return changed;
+    }
+
+    // blocks until the thread is interrupted
+    public void run() throws IOException {
+        try (var watcher = FileSystems.getDefault().newWatchService()) {
+            dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+            System.out.println("watching " + dir.toAbsolutePath());
+
+            while (true) {
+                var key = watcher.take();
+
+                for (Path file : changed(key.pollEvents())) {
+                    recompile(file);
+                }
+
+                if (!key.reset()) {
+                    System.err.println("The directory " + dir + " is no longer accessible.");
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static CompileWatcher of(File file, App.Options options) {
+        var path = file.getAbsoluteFile().toPath();
+        if (file.isDirectory()) {
+            return new CompileWatcher(path, null, options);
+        }
+        return new CompileWatcher(path.getParent(), path, options);
+    }
+}
@@ -0,0 +1,207 @@
+package br.ufma.ecp;
+
+import static br.ufma.ecp.Ast.NONE;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import br.ufma.ecp.Ast.Kind;
+import br.ufma.ecp.token.TokenType;
+
+/*
+ * Dead code elimination on the Ast, for the DCE optimization.
+ *
+ * prune() works inside a class: statements after a return (or after an if
+ * whose branches both return, or an endless loop) are dropped, an if with a
+ * constant condition is replaced by the branch it takes, a while whose
+ * condition is constant either disappears or becomes a LOOP, which has no
+ * exit test and so no exit label.
+ *
+ * live() and keep() work on a whole program: subroutines that cannot be
+ * reached from Main.main through the calls of the compilation set are not
+ * generated at all.
+ */
+final class DeadCode {
+
+    static final String ENTRY = "Main.main";
+
+    private DeadCode() {
+    }
+
+    static void prune(Ast ast) {
+        for (int sub = ast.first(0); sub != NONE; sub = ast.next(sub)) {
+            block(ast, ast.first(sub));
+        }
+    }
+
+    // true when control never gets past the block
+    private static boolean block(Ast ast, int block) {
+        var kept = new ArrayList<Integer>();
+        var exits = statements(ast, block, kept);
+        ast.setChildren(block, kept);
+        return exits;
+    }
+
+    // adds what the statements of block become to kept
+    private static boolean statements(Ast ast, int block, List<Integer> kept) {
+        for (int s = ast.first(block); s != NONE; s = ast.next(s)) {
+            if (statement(ast, s, kept)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean statement(Ast ast, int s, List<Integer> kept) {
+        switch (ast.kind(s)) {
+            case RETURN:
+                kept.add(s);
+                return true;
+            case IF: {
+                var condition = ast.first(s);
+                var then = ast.next(condition);
+                var otherwise = ast.next(then);
+                var c = constant(ast, condition);
+                if (c != null) {
+                    // if-goto takes any value but 0 as true
+                    var taken = c != 0 ? then : otherwise;
+                    return taken != NONE && statements(ast, taken, kept);
+                }
+                kept.add(s);
+                var thenExits = block(ast, then);
+                var elseExits = otherwise != NONE && block(ast, otherwise);
+                return thenExits && elseExits;
+            }
+            case WHILE: {
+                var condition = ast.first(s);
+                var body = ast.next(condition);
+                var c = constant(ast, condition);
+                // the loop is left when ~condition is not 0, so only -1 keeps it going
+                if (c != null && c != -1) {
+                    return false;
+                }
+                kept.add(s);
+                block(ast, body);
+                if (c == null) {
+                    return false;
+                }
+                ast.setKind(s, Kind.LOOP);
+                ast.setChildren(s, List.of(body));
+                return true;
+            }
+            default:
+                kept.add(s);
+                return false;
+        }
+    }
+
+    // the value of an expression made of constants only, null for anything else
+    static Integer constant(Ast ast, int e) {
+        switch (ast.kind(e)) {
+            case CONST:
+                return ast.a(e);
+            case KEYWORD:
+                return ast.token(e) == TokenType.TRUE ? -1 : 0;
+            case UNARY: {
+                var c = constant(ast, ast.first(e));
+                if (c == null) {
+                    return null;
+                }
+                return ast.token(e) == TokenType.NOT ? ~c : (int) (short) -c;
+            }
+            case BINARY: {
+                var left = constant(ast, ast.first(e));
+                var right = constant(ast, ast.next(ast.first(e)));
+                var op = ast.token(e);
+                if (left == null || right == null || !CodeGenerator.foldable(op, left, right)) {
+                    return null;
+                }
+                return CodeGenerator.fold(op, left, right);
+            }
+            default:
+                return null;
+        }
+    }
+
+    // adds the functions each subroutine of the class calls to graph
+    static void calls(Ast ast, Map<String, Set<String>> graph) {
+        for (int sub = ast.first(0); sub != NONE; sub = ast.next(sub)) {
+            var callees = graph.computeIfAbsent(ast.text(sub), k -> new HashSet<>());
+            calls(ast, ast.first(sub), callees);
+        }
+    }
+
+    private static void calls(Ast ast, int node, Set<String> callees) {
+        if (ast.kind(node) == Kind.CALL) {
+            callees.add(ast.text(node));
+        }
+        for (int child = ast.first(node); child != NONE; child = ast.next(child)) {
+            calls(ast, child, callees);
+        }
+    }
+
+    // what Main.main reaches, or null when the graph has no Main.main and so is not a whole program
+    static Set<String> live(Map<String, Set<String>> graph) {
+        if (!graph.containsKey(ENTRY)) {
+            return null;
+        }
+        var live = new HashSet<String>();
+        var work = new ArrayDeque<String>();
+        live.add(ENTRY);
+        work.add(ENTRY);
+        while (!work.isEmpty()) {
+            for (String callee : graph.getOrDefault(work.poll(), Set.of())) {
+                if (graph.containsKey(callee) && live.add(callee)) {
+                    work.add(callee);
+                }
+            }
+        }
+        return live;
+    }
+
+    /*
+     * The live subroutines of the program made of files, null when that cannot
+     * be told; inliner, when not null, takes out the calls it inlines first.
+     * A class that does not read or parse leaves the call graph unknown: that
+     * is said on warnings, and the compile proper reports the error itself.
+     */
+    static Set<String> live(List<File> files, Inliner inliner, PrintStream warnings) {
+        Map<String, Set<String>> graph = new HashMap<>();
+        for (File f : files) {
+            try {
+                var parser = new Parser(Files.readAllBytes(f.toPath()), null, null).inline(inliner);
+                calls(parser.parseAst(), graph);
+            } catch (IOException | RuntimeException e) {
+                var message = e instanceof IOException ? e.toString() : e.getMessage();
+                warnings.println("warning: " + f + ": " + message
+                        + "; DCE keeps every subroutine of the program");
+                return null;
+            }
+        }
+        return live(graph);
+    }
+
+    // drops the subroutines that are not live; returns how many
+    static int keep(Ast ast, Set<String> live) {
+        var kept = new ArrayList<Integer>();
+        var dropped = 0;
+        for (int sub = ast.first(0); sub != NONE; sub = ast.next(sub)) {
+            if (live.contains(ast.text(sub))) {
+                kept.add(sub);
+            } else {
+                dropped++;
+            }
+        }
+        ast.setChildren(0, kept);
+        return dropped;
+    }
+}
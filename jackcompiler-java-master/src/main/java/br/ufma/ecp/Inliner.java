@@ -0,0 +1,359 @@
+package br.ufma.ecp;
+
+import static br.ufma.ecp.Ast.NONE;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import br.ufma.ecp.Ast.Kind;
+import br.ufma.ecp.VMWriter.Segment;
+import br.ufma.ecp.token.TokenType;
+
+/*
+ * Inlining of small functions and accessors, for the INLINE optimization.
+ *
+ * A subroutine can be inlined when its body is a single return of an
+ * expression of at most MAX_NODES nodes made of constants, its parameters,
+ * its fields, this, operators and array reads. A call to it is replaced by
+ * that expression, with the arguments of the call in place of the
+ * parameters. For a method, a field stays a field when the receiver is this
+ * (the same class), and obj.x becomes obj[x] otherwise, which reads the same
+ * memory through pointer 1.
+ *
+ * The arguments must have no side effects (no calls, no string literals), so
+ * that evaluating them in another order, more than once or not at all makes
+ * no difference; one that is more than a variable or a constant must be used
+ * once, so nothing is computed twice.
+ *
+ * Built once from the Ast of every class compiled together, and shared
+ * read-only by their compiles; the decision taken at each call site is kept
+ * for report().
+ */
+final class Inliner {
+
+    static final int MAX_NODES = 8;
+
+    // estimates, in Hack instructions, of what the standard VM translator writes for
+    // a call, the function entry and the return
+    static final int CALL_COST = 95;
+    // push argument 0, pop pointer 0 at the start of a method
+    static final int METHOD_ENTRY_COST = 13;
+    // a field read through another object: the push of the receiver, pop pointer 1, push that 0
+    static final int THAT_READ_COST = 26;
+
+    record Decision(String caller, String callee, boolean inlined, String reason, int saved) {
+
+        @Override
+        public String toString() {
+            return caller + " -> " + callee + (inlined ? ": inlined, ~" + saved + " cycles saved per call" : ": kept, " + reason);
+        }
+    }
+
+    // a subroutine that can be inlined: the tree of its class and the returned expression
+    private record Body(Ast ast, int expr, boolean method) {
+    }
+
+    private final Map<String, Body> bodies;
+    // why the other subroutines of the program cannot be inlined
+    private final Map<String, String> rejected;
+    private final Queue<Decision> decisions = new ConcurrentLinkedQueue<>();
+
+    private Inliner(Map<String, Body> bodies, Map<String, String> rejected) {
+        this.bodies = Map.copyOf(bodies);
+        this.rejected = Map.copyOf(rejected);
+    }
+
+    // from the classes of a program, already parsed
+    static Inliner of(List<Ast> classes) {
+        var bodies = new HashMap<String, Body>();
+        var rejected = new HashMap<String, String>();
+        for (Ast ast : classes) {
+            for (int sub = ast.first(0); sub != NONE; sub = ast.next(sub)) {
+                var reason = analyze(ast, sub);
+                if (reason == null) {
+                    var ret = ast.first(ast.first(sub));
+                    bodies.put(ast.text(sub), new Body(ast, ast.first(ret), TokenType.fromOrdinal(ast.b(sub)) == TokenType.METHOD));
+                } else {
+                    rejected.put(ast.text(sub), reason);
+                }
+            }
+        }
+        return new Inliner(bodies, rejected);
+    }
+
+    // parses the files on a pool of 'jobs' threads; a file that does not parse is left out
+    static Inliner build(List<File> files, int jobs) {
+        var pool = Executors.newFixedThreadPool(Math.max(1, Math.min(jobs, files.size())));
+        try {
+            var futures = new ArrayList<Future<Ast>>();
+            for (File f : files) {
+                futures.add(pool.submit(() -> {
+                    try {
+                        return new Parser(Files.readAllBytes(f.toPath()), null, null).parseAst();
+                    } catch (RuntimeException e) {
+                        return null;
+                    }
+                }));
+            }
+            var classes = new ArrayList<Ast>();
+            for (Future<Ast> future : futures) {
+                if (future.get() != null) {
+                    classes.add(future.get());
+                }
+            }
+            return of(classes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // null when sub can be inlined, otherwise why not
+    private static String analyze(Ast ast, int sub) {
+        var kind = TokenType.fromOrdinal(ast.b(sub));
+        if (kind == TokenType.CONSTRUCTOR) {
+            return "a constructor";
+        }
+        var ret = ast.first(ast.first(sub));
+        if (ret == NONE || ast.kind(ret) != Kind.RETURN || ast.next(ret) != NONE || ast.first(ret) == NONE) {
+            return "more than a return";
+        }
+        var size = new int[1];
+        var reason = analyzeExpression(ast, ast.first(ret), kind == TokenType.METHOD, size);
+        if (reason == null && size[0] > MAX_NODES) {
+            return "too big (" + size[0] + " nodes)";
+        }
+        return reason;
+    }
+
+    private static String analyzeExpression(Ast ast, int e, boolean method, int[] size) {
+        size[0]++;
+        switch (ast.kind(e)) {
+            case CONST:
+            case KEYWORD:
+                return null;
+            case THIS:
+                return method ? null : "uses this outside a method";
+            case VAR:
+            case ARRAY_READ: {
+                var segment = ast.segment(e);
+                if (segment == Segment.STATIC) {
+                    return "uses statics of its class";
+                }
+                if (segment == Segment.LOCAL) {
+                    return "uses locals";
+                }
+                if (segment == Segment.THIS && !method) {
+                    return "uses fields outside a method";
+                }
+                return ast.kind(e) == Kind.ARRAY_READ ? analyzeExpression(ast, ast.first(e), method, size) : null;
+            }
+            case UNARY:
+            case BINARY:
+                for (int child = ast.first(e); child != NONE; child = ast.next(child)) {
+                    var reason = analyzeExpression(ast, child, method, size);
+                    if (reason != null) {
+                        return reason;
+                    }
+                }
+                return null;
+            case CALL:
+                return "calls " + ast.text(e);
+            case STRING:
+                return "builds a string";
+            default:
+                throw new IllegalStateException("not an expression: " + ast.kind(e));
+        }
+    }
+
+    /*
+     * Inlines the calls of the class it can. With record off nothing is kept
+     * for report(), for passes that only look at the result.
+     */
+    void apply(Ast ast, boolean record) {
+        for (int sub = ast.first(0); sub != NONE; sub = ast.next(sub)) {
+            walk(ast, ast.first(sub), ast.text(sub), false, record);
+        }
+    }
+
+    // children first, so a call that becomes an expression can make its caller's arguments pure
+    private void walk(Ast ast, int node, String caller, boolean statement, boolean record) {
+        for (int child = ast.first(node); child != NONE; child = ast.next(child)) {
+            walk(ast, child, caller, ast.kind(node) == Kind.DO, record);
+        }
+        // the value of a do is thrown away, the call is kept for its effects
+        if (ast.kind(node) == Kind.CALL && !statement) {
+            var decision = inline(ast, node, caller);
+            if (decision != null && record) {
+                decisions.add(decision);
+            }
+        }
+    }
+
+    private Decision inline(Ast ast, int call, String caller) {
+        var name = ast.text(call);
+        var body = bodies.get(name);
+        if (body == null) {
+            var reason = rejected.get(name);
+            return reason != null ? new Decision(caller, name, false, reason, 0) : null;
+        }
+        var args = new ArrayList<Integer>();
+        for (int arg = ast.first(call); arg != NONE; arg = ast.next(arg)) {
+            if (!pure(ast, arg)) {
+                return new Decision(caller, name, false, "an argument has side effects", 0);
+            }
+            args.add(arg);
+        }
+        var uses = new int[args.size()];
+        var reason = check(body.ast(), body.expr(), ast, args, uses);
+        if (reason != null) {
+            return new Decision(caller, name, false, reason, 0);
+        }
+        for (int i = 0; i < uses.length; i++) {
+            if (uses[i] > 1 && !leaf(ast, args.get(i))) {
+                return new Decision(caller, name, false, "an argument would be computed twice", 0);
+            }
+        }
+        var thatReads = new int[1];
+        var copy = copy(body.ast(), body.expr(), ast, args, thatReads);
+        ast.replace(call, copy);
+        var saved = CALL_COST + (body.method() ? METHOD_ENTRY_COST : 0) - thatReads[0] * THAT_READ_COST;
+        return new Decision(caller, name, true, null, saved);
+    }
+
+    private static boolean pure(Ast ast, int e) {
+        if (ast.kind(e) == Kind.CALL || ast.kind(e) == Kind.STRING) {
+            return false;
+        }
+        for (int child = ast.first(e); child != NONE; child = ast.next(child)) {
+            if (!pure(ast, child)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean leaf(Ast ast, int e) {
+        var kind = ast.kind(e);
+        return kind == Kind.CONST || kind == Kind.KEYWORD || kind == Kind.VAR || kind == Kind.THIS;
+    }
+
+    // counts the uses of each argument; null when the body fits the arguments of this call
+    private static String check(Ast from, int e, Ast into, List<Integer> args, int[] uses) {
+        var kind = from.kind(e);
+        if (kind == Kind.VAR || kind == Kind.ARRAY_READ) {
+            var segment = from.segment(e);
+            if (segment == Segment.ARG) {
+                if (from.b(e) >= args.size()) {
+                    return "called with too few arguments";
+                }
+                uses[from.b(e)]++;
+                // an array read needs a variable to index
+                if (kind == Kind.ARRAY_READ && into.kind(args.get(from.b(e))) != Kind.VAR) {
+                    return "indexes an argument that is not a variable";
+                }
+            } else if (segment == Segment.THIS) {
+                var receiver = args.isEmpty() ? NONE : args.get(0);
+                if (receiver == NONE || into.kind(receiver) != Kind.THIS && into.kind(receiver) != Kind.VAR) {
+                    return "has no receiver to read fields from";
+                }
+                if (kind == Kind.ARRAY_READ && into.kind(receiver) != Kind.THIS) {
+                    return "indexes a field of another object";
+                }
+            }
+        } else if (kind == Kind.THIS && args.isEmpty()) {
+            return "has no receiver";
+        }
+        for (int child = from.first(e); child != NONE; child = from.next(child)) {
+            var reason = check(from, child, into, args, uses);
+            if (reason != null) {
+                return reason;
+            }
+        }
+        return null;
+    }
+
+    // the expression e of from, rebuilt in into for the given arguments
+    private static int copy(Ast from, int e, Ast into, List<Integer> args, int[] thatReads) {
+        var kind = from.kind(e);
+        switch (kind) {
+            case THIS:
+                return copyTree(into, into, args.get(0));
+            case VAR:
+                if (from.segment(e) == Segment.ARG) {
+                    return copyTree(into, into, args.get(from.b(e)));
+                }
+                if (from.segment(e) == Segment.THIS && into.kind(args.get(0)) == Kind.VAR) {
+                    // obj.x is obj[x]
+                    var receiver = args.get(0);
+                    var read = into.add(Kind.ARRAY_READ, into.a(receiver), into.b(receiver), 0);
+                    into.append(read, into.add(Kind.CONST, from.b(e), 0, 0));
+                    thatReads[0]++;
+                    return read;
+                }
+                return into.add(kind, from.a(e), from.b(e), from.c(e));
+            case ARRAY_READ: {
+                int read;
+                if (from.segment(e) == Segment.ARG) {
+                    var base = args.get(from.b(e));
+                    read = into.add(Kind.ARRAY_READ, into.a(base), into.b(base), 0);
+                } else {
+                    read = into.add(Kind.ARRAY_READ, from.a(e), from.b(e), 0);
+                }
+                into.append(read, copy(from, from.first(e), into, args, thatReads));
+                return read;
+            }
+            default: {
+                var node = into.add(kind, from.a(e), from.b(e), from.c(e));
+                for (int child = from.first(e); child != NONE; child = from.next(child)) {
+                    into.append(node, copy(from, child, into, args, thatReads));
+                }
+                return node;
+            }
+        }
+    }
+
+    // arguments are pure, so they have no strings to carry over
+    private static int copyTree(Ast from, Ast into, int e) {
+        var node = into.add(from.kind(e), from.a(e), from.b(e), from.c(e));
+        for (int child = from.first(e); child != NONE; child = from.next(child)) {
+            into.append(node, copyTree(from, into, child));
+        }
+        return node;
+    }
+
+    List<Decision> decisions() {
+        var list = new ArrayList<>(decisions);
+        list.sort(Comparator.comparing(Decision::caller).thenComparing(Decision::callee));
+        return list;
+    }
+
+    void report(PrintStream out) {
+        var list = decisions();
+        var inlined = 0;
+        var saved = 0L;
+        for (Decision d : list) {
+            out.println("inline " + d);
+            if (d.inlined()) {
+                inlined++;
+                saved += d.saved();
+            }
+        }
+        out.printf("inline total: %d of %d calls inlined, ~%d cycles saved if each runs once%n", inlined, list.size(), saved);
+    }
+}
@@ -0,0 +1,177 @@
+package br.ufma.ecp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Compiler-wide pool of identifier names. Looking up a name takes the byte
+ * slice straight from the source, so a name that was seen before costs no
+ * allocation and every occurrence shares one String instance.
+ *
+ * The pool is shared by all files compiled in the process (possibly on
+ * several threads), so the table is split into independently locked shards.
+ * Names are never evicted, so the pool is bounded: once it holds maxNames, a
+ * name it has not seen is handed out as a plain String. That only costs the
+ * SymbolTable an equals instead of an ==, and keeps a long-running process
+ * (CompileServer, App --watch) from growing with every name it is sent.
+ */
+public final class NamePool {
+
+    // far more distinct names than a program has, a few MB at most
+    static final int MAX_NAMES = 1 << 16;
+
+    public static final NamePool SHARED = new NamePool(MAX_NAMES);
+
+    private static final int SHARDS = 16;
+
+    private final Shard[] shards = new Shard[SHARDS];
+
+    public NamePool() {
+        this(Integer.MAX_VALUE);
+    }
+
+    public NamePool(int maxNames) {
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(Math.max(1, maxNames / SHARDS));
+        }
+    }
+
+    // identifiers are ASCII, so each byte is one char
+    public String intern(byte[] bytes, int start, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + bytes[start + i];
+        }
+        // String.hashCode of the same name, spread so shards and slots use different bits
+        int spread = hash ^ (hash >>> 16);
+        return shards[spread & (SHARDS - 1)].intern(bytes, start, length, spread >>> 4);
+    }
+
+    /*
+     * For buffers without a backing array (direct or mapped); start is an
+     * absolute index. Hashing and comparing go through ByteBuffer.get, a new
+     * name is copied out once.
+     */
+    public String intern(ByteBuffer bytes, int start, int length) {
+        if (bytes.hasArray()) {
+            return intern(bytes.array(), bytes.arrayOffset() + start, length);
+        }
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + bytes.get(start + i);
+        }
+        int spread = hash ^ (hash >>> 16);
+        var shard = shards[spread & (SHARDS - 1)];
+        var name = shard.find(bytes, start, length, spread >>> 4);
+        if (name != null) {
+            return name;
+        }
+        var copy = new byte[length];
+        bytes.get(start, copy);
+        return shard.intern(copy, 0, length, spread >>> 4);
+    }
+
+    public String intern(String name) {
+        var bytes = new byte[name.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) name.charAt(i);
+        }
+        return intern(bytes, 0, bytes.length);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                size += shard.size;
+            }
+        }
+        return size;
+    }
+
+    // open addressing with linear probing
+    private static final class Shard {
+        private final int maxSize;
+        private String[] names = new String[64];
+        private int[] hashes = new int[64];
+        private int size;
+
+        Shard(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        synchronized String intern(byte[] bytes, int start, int length, int hash) {
+            int mask = names.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                var name = names[slot];
+                if (name == null) {
+                    name = new String(bytes, start, length, StandardCharsets.ISO_8859_1);
+                    if (size >= maxSize) {
+                        return name;
+                    }
+                    names[slot] = name;
+                    hashes[slot] = hash;
+                    if (++size * 2 > names.length) {
+                        grow();
+                    }
+                    return name;
+                }
+                if (hashes[slot] == hash && equals(name, bytes, start, length)) {
+                    return name;
+                }
+            }
+        }
+
+        synchronized String find(ByteBuffer bytes, int start, int length, int hash) {
+            int mask = names.length - 1;
+            for (int slot = hash & mask; names[slot] != null; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && equals(names[slot], bytes, start, length)) {
+                    return names[slot];
+                }
+            }
+            return null;
+        }
+
+        private static boolean equals(String name, ByteBuffer bytes, int start, int length) {
+            if (name.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (name.charAt(i) != bytes.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean equals(String name, byte[] bytes, int start, int length) {
+            if (name.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (name.charAt(i) != bytes[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void grow() {
+            var oldNames = names;
+            var oldHashes = hashes;
+            names = new String[oldNames.length * 2];
+            hashes = new int[oldNames.length * 2];
+            int mask = names.length - 1;
+            for (int i = 0; i < oldNames.length; i++) {
+                if (oldNames[i] != null) {
+                    int slot = oldHashes[i] & mask;
+                    while (names[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    names[slot] = oldNames[i];
+                    hashes[slot] = oldHashes[i];
+                }
+            }
+        }
+    }
+}
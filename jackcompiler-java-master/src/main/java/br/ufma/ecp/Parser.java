@@ -1,40 +1,298 @@
 package br.ufma.ecp;
 import static br.ufma.ecp.token.TokenType.*;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.Set;
+
 import br.ufma.ecp.token.Token;
+import br.ufma.ecp.token.TokenStream;
 import br.ufma.ecp.token.TokenType;
 import br.ufma.ecp.SymbolTable.Kind;
 import br.ufma.ecp.SymbolTable.Symbol;
-import br.ufma.ecp.VMWriter.Command;
-import br.ufma.ecp.VMWriter.Segment;
 
 public class Parser {
 
-    private static class ParseError extends RuntimeException {}
-    private Scanner scan;
+    private static class ParseError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ParseError(String message) {
+            super(message);
+        }
+    }
+    private TokenStream scan;
     private Token currentToken;
     private Token peekToken;
-    private StringBuilder xmlOutput = new StringBuilder();
-    private VMWriter vmWriter = new VMWriter();
-	private SymbolTable symTable = new SymbolTable();
+    // null when the XML parse tree is turned off
+    private Appendable xmlOutput;
+    private VMWriter vmWriter;
+    // the generator itself, or an AstBuilder in front of it
+    private CodeSink codegen;
+    private CodeGenerator generator;
+    // null unless the PEEPHOLE optimization is on
+    private PeepholeWriter peephole;
+    private boolean dce;
+    // the subroutines to generate, null for all of them
+    private Set<String> live;
+    // the declarations of the whole program, null when compiling a class on its own
+    private SignatureIndex index;
+    private boolean inline;
+    private boolean arrays;
+    // the subroutines of the whole program that can be inlined, null for those of the class alone
+    private Inliner inliner;
+    private Ast ast;
+	private SymbolTable symTable;
+    // null unless the phases are timed, see CompileStats
+    private CompileStats stats;
 
     private String className;
-    private int ifLabelNum = 0 ;
-    private int whileLabelNum = 0;
     
+    // which outputs a parser produces; what is off costs nothing
+    public enum Output {
+        VM, XML, BOTH
+    }
+
+    // code improvements, all off by default; see optimize()
+    public enum Optimization {
+        // fold constant expressions, x*2 -> x+x, drop +0 and *1, -(-x) -> x
+        FOLD,
+        // rewrite redundant instruction sequences, see PeepholeWriter
+        PEEPHOLE,
+        // build each distinct string literal of a class once and keep it in a static
+        STRINGS,
+        // drop unreachable statements and constant branches, see DeadCode
+        DCE,
+        // replace calls to small functions and accessors by their bodies, see Inliner
+        INLINE,
+        // write Memory.peek/poke and Math.abs/min/max in place of their calls
+        INTRINSICS,
+        // store into an array element without temp 0, and read it again through pointer 1, see Ast.emit
+        ARRAYS
+    }
+
     public Parser (byte[] input) {
-        scan = new Scanner(input);
-        symTable = new SymbolTable();
-        vmWriter = new VMWriter();
+        this(input, input.length, Output.BOTH);
+    }
+
+    public Parser (byte[] input, Output output) {
+        this(input, input.length, output);
+    }
+
+    public Parser (byte[] input, int length) {
+        this(input, length, Output.BOTH);
+    }
+
+    // the selected outputs are kept in memory, read them with VMOutput() and XMLOutput()
+    public Parser (byte[] input, int length, Output output) {
+        this(new Scanner(input, length),
+            output != Output.XML ? new VMWriter() : discardVM(),
+            output != Output.VM ? new StringBuilder() : null);
+    }
+
+    // VM code is streamed to vmOut as it is generated instead of kept for VMOutput()
+    public Parser (byte[] input, WritableByteChannel vmOut) {
+        this(new Scanner(input), new VMWriter(vmOut), null);
+    }
+
+    // streams both outputs; a null sink turns that output off
+    public Parser (byte[] input, WritableByteChannel vmOut, Appendable xmlOut) {
+        this(new Scanner(input), vmOut != null ? new VMWriter(vmOut) : discardVM(), xmlOut);
+    }
+
+    // parses the buffer in place, e.g. a file mapped with FileChannel.map
+    public Parser (ByteBuffer input, Output output) {
+        this(new Scanner(input),
+            output != Output.XML ? new VMWriter() : discardVM(),
+            output != Output.VM ? new StringBuilder() : null);
+    }
+
+    public Parser (ByteBuffer input, WritableByteChannel vmOut) {
+        this(new Scanner(input), new VMWriter(vmOut), null);
+    }
+
+    // reads the source in chunks as it parses, e.g. from a pipe or stdin
+    public Parser (ReadableByteChannel input, WritableByteChannel vmOut) {
+        this(new Scanner(input), new VMWriter(vmOut), null);
+    }
+
+    private static VMWriter discardVM() {
+        return new VMWriter(Channels.newChannel(OutputStream.nullOutputStream()));
+    }
+
+    // tokens from another source and code to another writer, such as the stages of a Pipeline
+    Parser (TokenStream tokens, VMWriter vmWriter) {
+        this(tokens, vmWriter, null);
+    }
+
+    // times each phase into stats, see CompileStats
+    Parser (ByteBuffer input, WritableByteChannel vmOut, CompileStats stats) {
+        this(new CompileStats.TimedTokens(new Scanner(input), stats), new CompileStats.TimedVMWriter(vmOut, stats),
+            null, new CompileStats.TimedSymbolTable(stats));
+        this.stats = stats;
+    }
+
+    private Parser (TokenStream scan, VMWriter vmWriter, Appendable xmlOutput) {
+        this(scan, vmWriter, xmlOutput, new SymbolTable());
+    }
+
+    private Parser (TokenStream scan, VMWriter vmWriter, Appendable xmlOutput, SymbolTable symTable) {
+        this.scan = scan;
+        this.symTable = symTable;
+        this.vmWriter = vmWriter;
+        this.generator = new CodeGenerator(vmWriter);
+        this.codegen = generator;
+        this.xmlOutput = xmlOutput;
 
         nextToken();
+    }
+
+    // call before parse(); the XML output is the same either way
+    public Parser optimize(Set<Optimization> optimizations) {
+        if (optimizations.contains(Optimization.PEEPHOLE) && peephole == null) {
+            peephole = new PeepholeWriter(vmWriter);
+            vmWriter = peephole;
+            var next = new CodeGenerator(vmWriter);
+            if (codegen == generator) {
+                codegen = next;
+            }
+            generator = next;
+        }
+        generator.optimize(optimizations);
+        if (optimizations.contains(Optimization.DCE)) {
+            dce = true;
+            buildAst();
+        }
+        if (optimizations.contains(Optimization.INLINE)) {
+            inline = true;
+            buildAst();
+        }
+        if (optimizations.contains(Optimization.ARRAYS)) {
+            arrays = true;
+            buildAst();
+        }
+        return this;
+    }
 
-        ifLabelNum = 0;
-        whileLabelNum = 0;
+    /*
+     * Call before parse(), with DCE on: generates only the subroutines in
+     * live, as found by DeadCode.live for the whole program.
+     */
+    public Parser keep(Set<String> live) {
+        this.live = live;
+        return this;
+    }
+
+    /*
+     * Call before parse(): resolves and checks calls against the declarations
+     * of every class of the program, see SignatureIndex, and gives the class
+     * its share of the free statics for STRINGS.
+     */
+    Parser index(SignatureIndex index) {
+        this.index = index;
+        return this;
+    }
+
+    /*
+     * Call before parse(), with INLINE on: inlines the calls into the other
+     * classes of the program too, see Inliner.build.
+     */
+    Parser inline(Inliner inliner) {
+        this.inliner = inliner;
+        return this;
+    }
+
+    /*
+     * Call before parse(): builds the class as an Ast and generates the code
+     * from it once the class has been read, instead of while reading it.
+     * The output is the same; ast() keeps the tree for later use.
+     */
+    public Parser buildAst() {
+        codegen = new AstBuilder();
+        return this;
+    }
+
+    /*
+     * Gets the parser ready for another class, reusing its symbol table, code
+     * generator and VM buffers instead of allocating new ones; see
+     * CompileServer. Only for a plain parser keeping its VM code in memory.
+     */
+    void reset(byte[] input, int length) {
+        if (codegen != generator || peephole != null || xmlOutput != null || stats != null) {
+            throw new IllegalStateException("only a plain VM parser can be reset");
+        }
+        vmWriter.reset();
+        symTable.reset();
+        generator.reset();
+        className = null;
+        ast = null;
+        currentToken = null;
+        peekToken = null;
+        scan = new Scanner(input, length);
+        nextToken();
+    }
+
+    // how many instructions the peephole pass took out, 0 when it is off
+    public int peepholeRemoved() {
+        return peephole != null ? peephole.removed() : 0;
+    }
+
+    // the tree of the class parsed with buildAst(), null otherwise
+    Ast ast() {
+        return ast;
     }
 
     public void parse () {
+        if (index != null) {
+            generator.maxInternedStrings(index.stringsPerClass());
+        }
+        if (stats == null) {
+            parseClass();
+            generate();
+            return;
+        }
+        var sink = codegen;
+        codegen = new CompileStats.TimedCodeSink(sink, stats);
+        parseClass();
+        codegen = sink;
+        stats.codegen(this::generate);
+    }
+
+    // what is left once the class has been read: the passes over its Ast and the code they give
+    private void generate() {
+        if (codegen instanceof AstBuilder builder) {
+            ast = builder.ast();
+            if (inline) {
+                // before DCE, an inlined constant can decide a branch
+                (inliner != null ? inliner : Inliner.of(List.of(ast))).apply(ast, true);
+            }
+            if (dce) {
+                DeadCode.prune(ast);
+                if (live != null) {
+                    DeadCode.keep(ast, live);
+                }
+            }
+            ast.emit(generator, arrays);
+        }
+        vmWriter.flush();
+    }
+
+    // parses the class into an Ast, after inline() and DeadCode.prune, without generating any code
+    Ast parseAst() {
+        var builder = new AstBuilder();
+        codegen = builder;
         parseClass();
+        ast = builder.ast();
+        if (inliner != null) {
+            inliner.apply(ast, false);
+        }
+        DeadCode.prune(ast);
+        return ast;
     }
 
 
@@ -49,23 +307,23 @@ public class Parser {
     }
 
      public String XMLOutput() {
+        if (!(xmlOutput instanceof StringBuilder)) {
+            throw new IllegalStateException("the XML output is off or was streamed to a sink");
+        }
         return xmlOutput.toString();
     }
 
-    private void printNonTerminal(String nterminal) {
-        xmlOutput.append(String.format("<%s>\r\n", nterminal));
+    private void xml(String text) {
+        try {
+            xmlOutput.append(text).append("\r\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
-    private Segment kind2Segment(Kind kind) {
-        if (kind == Kind.STATIC)
-            return Segment.STATIC;
-        if (kind == Kind.FIELD)
-            return Segment.THIS;
-        if (kind == Kind.VAR)
-            return Segment.LOCAL;
-        if (kind == Kind.ARG)
-            return Segment.ARG;
-        return null;
+    private void printNonTerminal(String nterminal) {
+        if (xmlOutput != null)
+            xml("<" + nterminal + ">");
     }
 
     boolean peekTokenIs(TokenType type) {
@@ -91,26 +349,27 @@ public class Parser {
     private void expectPeek(TokenType type) {
         if (peekToken.type == type) {
             nextToken();
-            xmlOutput.append(String.format("%s\r\n", currentToken.toString()));
+            if (xmlOutput != null)
+                xml(currentToken.toString());
         } else {
             throw error(peekToken, "Expected "+type.name());
         }
     }
 
 
-    private static void report(int line, String where,
+    // the message travels with the exception so callers compiling several
+    // files at once can report each error next to its own file
+    private static String report(int line, String where,
         String message) {
-            System.err.println(
-            "[line " + line + "] Error" + where + ": " + message);
+            return "[line " + line + "] Error" + where + ": " + message;
     }
 
     private ParseError error(Token token, String message) {
         if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
+            return new ParseError(report(token.line, " at end", message));
         } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+            return new ParseError(report(token.line, " at '" + token.lexeme + "'", message));
         }
-        return new ParseError();
     }
 
     void parseClass() {
@@ -123,10 +382,12 @@ public class Parser {
         while (peekTokenIs(TokenType.STATIC) || peekTokenIs(TokenType.FIELD)) {
             parseClassVarDec();
         }
+        codegen.startClass(className, symTable.varCount(Kind.STATIC));
 
         while (peekTokenIs(TokenType.FUNCTION) || peekTokenIs(TokenType.CONSTRUCTOR) || peekTokenIs(TokenType.METHOD)) {
             parseSubroutineDec();
         }
+        codegen.endClass();
 
         expectPeek(TokenType.RBRACE);
 
@@ -191,8 +452,7 @@ public class Parser {
     void parseSubroutineDec() {
         printNonTerminal("subroutineDec");
 
-        ifLabelNum = 0;
-        whileLabelNum = 0;
+        codegen.startSubroutine();
 
         symTable.startSubroutine();
 
@@ -256,18 +516,7 @@ public class Parser {
         }
 		var nlocals = symTable.varCount(Kind.VAR);
 
-        vmWriter.writeFunction(functionName, nlocals);
-
-        if (subroutineType == CONSTRUCTOR) {
-            vmWriter.writePush(Segment.CONST, symTable.varCount(Kind.FIELD));
-            vmWriter.writeCall("Memory.alloc", 1);
-            vmWriter.writePop(Segment.POINTER, 0);
-        }
-
-        if (subroutineType == METHOD) {
-            vmWriter.writePush(Segment.ARG, 0);
-            vmWriter.writePop(Segment.POINTER, 0);
-        }
+        codegen.function(functionName, subroutineType, nlocals, symTable.varCount(Kind.FIELD));
 
         parseStatements();
         expectPeek(RBRACE);
@@ -275,37 +524,35 @@ public class Parser {
     }
 
     void parseTerm() {
+        term();
+        codegen.materialize();
+    }
+
+    // leaves the value on the code generator's operand stack
+    private void term() {
         printNonTerminal("term");
         switch (peekToken.type) {
             case INT:
                 expectPeek(TokenType.INT);
-                vmWriter.writePush(Segment.CONST, Integer.parseInt(currentToken.lexeme)); /*ou value ?? */
+                codegen.pushConstant(Integer.parseInt(currentToken.lexeme)); /*ou value ?? */
                 break;
             case NUMBER:
                 expectPeek(TokenType.NUMBER);
-                vmWriter.writePush(Segment.CONST, Integer.parseInt(currentToken.lexeme));
+                codegen.pushConstant(Integer.parseInt(currentToken.lexeme));
                 break;
         case STRING:
                 expectPeek(TokenType.STRING);
-                var strValue = currentToken.lexeme;
-                vmWriter.writePush(Segment.CONST, strValue.length());
-                vmWriter.writeCall("String.new", 1);
-                for (int i = 0; i < strValue.length(); i++) {
-                    vmWriter.writePush(Segment.CONST, strValue.charAt(i));
-                    vmWriter.writeCall("String.appendChar", 2);
-                }
+                codegen.pushString(currentToken.lexeme);
                 break;
             case FALSE:
             case NULL:
             case TRUE:
                 expectPeek(TokenType.FALSE, TokenType.NULL, TokenType.TRUE);
-                vmWriter.writePush(Segment.CONST, 0);
-                if (currentToken.type == TRUE)
-                    vmWriter.writeArithmetic(Command.NOT);
+                codegen.pushKeyword(currentToken.type);
                 break;
             case THIS:
                 expectPeek(TokenType.THIS);
-                vmWriter.writePush(Segment.POINTER, 0);
+                codegen.pushThis();
                 break;
             case IDENT:
                 expectPeek(TokenType.IDENT);
@@ -317,32 +564,25 @@ public class Parser {
                 } else { 
                     if (peekTokenIs(TokenType.LBRACKET)) { 
                         expectPeek(TokenType.LBRACKET);
-                        parseExpression();
-                        vmWriter.writePush(kind2Segment(sym.kind()), sym.index());
-                        vmWriter.writeArithmetic(Command.ADD);  
-
+                        expression();
                         expectPeek(TokenType.RBRACKET);
-                        vmWriter.writePop(Segment.POINTER, 1); // pop address pointer into pointer 1
-                        vmWriter.writePush(Segment.THAT, 0);                       
+                        codegen.arrayRead(CodeGenerator.kind2Segment(sym.kind()), sym.index());
                     } else {
-                        vmWriter.writePush(kind2Segment(sym.kind()), sym.index());
+                        codegen.pushVariable(CodeGenerator.kind2Segment(sym.kind()), sym.index());
                     }
                 }
                 break;
             case LPAREN:
                 expectPeek(TokenType.LPAREN);
-                parseExpression();
+                expression();
                 expectPeek(TokenType.RPAREN);
                 break;
             case MINUS:
             case NOT:
                 expectPeek(TokenType.MINUS, TokenType.NOT);
                 var op = currentToken.type;
-                parseTerm();
-                if (op == MINUS)
-                    vmWriter.writeArithmetic(Command.NEG);
-                else
-                    vmWriter.writeArithmetic(Command.NOT);
+                term();
+                codegen.unary(op);
                     break;
                 default:
                     throw error(peekToken, "term expected");
@@ -377,47 +617,25 @@ public class Parser {
         }
 
         void parseExpression() {
+            expression();
+            codegen.materialize();
+        }
+
+        // leaves the value on the code generator's operand stack
+        private void expression() {
             printNonTerminal("expression");
-            parseTerm ();
+            term ();
             
             while (isOperator(peekToken.lexeme)) {
                 var ope = peekToken.type;
                 expectPeek(peekToken.type);
-                parseTerm();
-                compileOperators(ope);
+                codegen.beginBinary(ope);
+                term();
+                codegen.binary(ope);
             }
             printNonTerminal("/expression");
       }
 
-       public void compileOperators(TokenType type) {
-
-        if (type == ASTERISK) {
-            vmWriter.writeCall("Math.multiply", 2);
-        } else if (type == SLASH) {
-            vmWriter.writeCall("Math.divide", 2);
-        } else {
-            vmWriter.writeArithmetic(typeOperator(type));
-        }
-    }
-
-    private Command typeOperator(TokenType type) {
-        if (type == PLUS)
-            return Command.ADD;
-        if (type == MINUS)
-            return Command.SUB;
-        if (type == LT)
-            return Command.LT;
-        if (type == GT)
-            return Command.GT;
-        if (type == EQ)
-            return Command.EQ;
-        if (type == AND)
-            return Command.AND;
-        if (type == OR)
-            return Command.OR;
-        return null;
-    }
-
       void parseStatements() {
         printNonTerminal("statements");
         while (peekToken.type == WHILE ||
@@ -468,6 +686,7 @@ public class Parser {
             expectPeek(TokenType.LBRACKET);
             parseExpression();         
             expectPeek(TokenType.RBRACKET);
+            codegen.arrayElement(CodeGenerator.kind2Segment(symbol.kind()), symbol.index());
 
             isArray = true;
         }
@@ -476,10 +695,9 @@ public class Parser {
         parseExpression();
 
         if (isArray) {
-    
-
+            codegen.letArray(CodeGenerator.kind2Segment(symbol.kind()), symbol.index());
         } else {
-            vmWriter.writePop(kind2Segment(symbol.kind()), symbol.index());
+            codegen.let(CodeGenerator.kind2Segment(symbol.kind()), symbol.index());
         }
 
 
@@ -490,39 +708,27 @@ public class Parser {
     void parseIf() {
         printNonTerminal("ifStatement");
 
-        var labelTrue = "IF_TRUE" + ifLabelNum;
-        var labelFalse = "IF_FALSE" + ifLabelNum;
-        var labelEnd = "IF_END" + ifLabelNum;
-
-        ifLabelNum++;
-    
         expectPeek(IF);
         expectPeek(LPAREN);
-        parseExpression();
+        expression();
         expectPeek(RPAREN);
 
-        vmWriter.writeIf(labelTrue);
-        vmWriter.writeGoto(labelFalse);
-        vmWriter.writeLabel(labelTrue);
+        var labelNum = codegen.ifStart();
     
         expectPeek(LBRACE);
         parseStatements();
         expectPeek(RBRACE);
 
-        if (peekTokenIs(ELSE)){
-            vmWriter.writeGoto(labelEnd);
-        }
-
-        vmWriter.writeLabel(labelFalse);
-
-        if (peekTokenIs(ELSE))
+        var hasElse = peekTokenIs(ELSE);
+        if (hasElse)
         {
+            codegen.ifElse(labelNum);
             expectPeek(ELSE);
             expectPeek(LBRACE);
             parseStatements();
             expectPeek(RBRACE);
-            vmWriter.writeLabel(labelEnd);
         }
+        codegen.ifEnd(labelNum, hasElse);
 
         printNonTerminal("/ifStatement");
     }
@@ -535,19 +741,26 @@ public class Parser {
         var functionName = ident + ".";
 
         if (peekTokenIs(LPAREN)) { // método da propria classe
+                // sem o índice, não há como saber se é uma função
+                var callee = index != null ? index.find(className, ident) : null;
+                var method = callee == null || callee.isMethod();
                 expectPeek(LPAREN);
-                vmWriter.writePush(Segment.POINTER, 0);
-                nArgs = parseExpressionList() + 1;
+                if (method) {
+                    codegen.pushThis();
+                }
+                nArgs = parseExpressionList() + (method ? 1 : 0);
                 expectPeek(RPAREN);
                 functionName = className + "." + ident;
+                checkCall(className, ident, nArgs, method);
             } else {
                 // pode ser um metodo de um outro objeto ou uma função
                 expectPeek(DOT);
                 expectPeek(IDENT); // nome da função
+                var name = currentToken.lexeme;
     
                 if (symbol != null) { // é um metodo
                     functionName = symbol.type() + "." + currentToken.lexeme;
-                    vmWriter.writePush(kind2Segment(symbol.kind()), symbol.index());
+                    codegen.pushVariable(CodeGenerator.kind2Segment(symbol.kind()), symbol.index());
                     nArgs = 1; // do proprio objeto
                 } else {
                     functionName += currentToken.lexeme; // é uma função
@@ -557,9 +770,29 @@ public class Parser {
                 nArgs += parseExpressionList();
     
                 expectPeek(RPAREN);
+                checkCall(symbol != null ? symbol.type() : ident, name, nArgs, symbol != null);
             }
     
-        vmWriter.writeCall(functionName, nArgs);
+        codegen.call(functionName, nArgs);
+    }
+
+    // with an index, a call into a class of the program must match a declaration
+    private void checkCall(String calleeClass, String name, int nArgs, boolean onObject) {
+        if (index == null || !index.has(calleeClass)) {
+            return;
+        }
+        var callee = index.find(calleeClass, name);
+        if (callee == null) {
+            throw error(currentToken, calleeClass + " has no subroutine " + name);
+        }
+        if (onObject != callee.isMethod()) {
+            throw error(currentToken, calleeClass + "." + name + (callee.isMethod()
+                    ? " is a method, it needs an object" : " is not a method, call it on the class"));
+        }
+        if (nArgs != callee.nArgs()) {
+            throw error(currentToken, calleeClass + "." + name + " takes " + callee.nParams()
+                    + " arguments, got " + (onObject ? nArgs - 1 : nArgs));
+        }
     }
 
     void parseDo(){
@@ -568,32 +801,26 @@ public class Parser {
         expectPeek(TokenType.IDENT);
         parseSubroutineCall();
         expectPeek(TokenType.SEMICOLON);
-        vmWriter.writePop(Segment.TEMP, 0);
+        codegen.doStatement();
         printNonTerminal("/doStatement");
     }
 
     void parseWhile() {
         printNonTerminal("whileStatement");
 
-        var labelTrue = "WHILE_EXP" + whileLabelNum;
-        var labelFalse = "WHILE_END" + whileLabelNum;
-        whileLabelNum++;
-
-        vmWriter.writeLabel(labelTrue);
+        var labelNum = codegen.whileStart();
 
         expectPeek(WHILE);
         expectPeek(LPAREN);
-        parseExpression();
+        expression();
 
-        vmWriter.writeArithmetic(Command.NOT);
-        vmWriter.writeIf(labelFalse);
+        codegen.whileCondition(labelNum);
 
         expectPeek(RPAREN);
         expectPeek(LBRACE);
         parseStatements();
 
-        vmWriter.writeGoto(labelTrue); // Go back to labelTrue and check condition
-        vmWriter.writeLabel(labelFalse); // Breaks out of while loop because ~(condition) is true
+        codegen.whileEnd(labelNum);
 
         expectPeek(RBRACE);
         printNonTerminal("/whileStatement");
@@ -602,13 +829,12 @@ public class Parser {
     void parseReturn(){
         printNonTerminal("returnStatement");
         expectPeek(TokenType.RETURN);
-        if (!peekTokenIs(TokenType.SEMICOLON)) {
-            parseExpression();
-        } else {
-            vmWriter.writePush(Segment.CONST, 0);
+        var hasValue = !peekTokenIs(TokenType.SEMICOLON);
+        if (hasValue) {
+            expression();
         }
         expectPeek(TokenType.SEMICOLON);
-        vmWriter.writeReturn();
+        codegen.returnStatement(hasValue);
 
         printNonTerminal("/returnStatement");
     }
@@ -0,0 +1,356 @@
+package br.ufma.ecp;
+
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Sits between the CodeGenerator and the real VMWriter. The instructions of
+ * the current function are kept, and when the function ends the redundant
+ * sequences the generator leaves behind are rewritten before the rest is
+ * passed on:
+ *
+ *   not, not                          -> (nothing)
+ *   push constant 0, if-goto L        -> (nothing)
+ *   push constant 0, not, if-goto L   -> goto L
+ *   if-goto T, goto F, label T        -> not, if-goto F      when nothing else jumps to T
+ *                                                            and the condition is 0 or -1
+ *   push x, pop x                     -> (nothing)
+ *   goto L, label L                   -> label L
+ *
+ * Code after a goto or a return up to the next label, and labels nothing
+ * jumps to, are dropped too. Then while loops are rotated so the test sits
+ * at the bottom and each iteration saves the not and the goto:
+ *
+ *   label A, cond, not, if-goto B, body, goto A, label B
+ *     -> goto A, label A_BODY, body, label A, cond, if-goto A_BODY
+ *
+ * if-goto jumps on anything but 0, so dropping a not before it is only the
+ * same when the condition is 0 or -1: a comparison, a constant 0 or a not of
+ * one of those. Any other loop, such as while (x & 1), keeps the not and so
+ * would save nothing per iteration; it is left as it is.
+ */
+final class PeepholeWriter extends VMWriter {
+
+    private static final byte PUSH = 0, POP = 1, ARITHMETIC = 2, LABEL = 3, GOTO = 4, IF_GOTO = 5, CALL = 6, RETURN = 7;
+    private static final Segment[] SEGMENTS = Segment.values();
+    private static final Command[] COMMANDS = Command.values();
+    private static final int NOT = Command.NOT.ordinal();
+    private static final int EQ = Command.EQ.ordinal(), GT = Command.GT.ordinal(), LT = Command.LT.ordinal();
+
+    // instructions as parallel arrays: x is the segment, command or argument count, y the index
+    private static final class Code {
+        byte[] op = new byte[64];
+        int[] x = new int[64];
+        int[] y = new int[64];
+        String[] label = new String[64];
+        int size;
+
+        void add(byte op, int x, int y, String label) {
+            if (size == this.op.length) {
+                var n = size * 2;
+                this.op = Arrays.copyOf(this.op, n);
+                this.x = Arrays.copyOf(this.x, n);
+                this.y = Arrays.copyOf(this.y, n);
+                this.label = Arrays.copyOf(this.label, n);
+            }
+            this.op[size] = op;
+            this.x[size] = x;
+            this.y[size] = y;
+            this.label[size] = label;
+            size++;
+        }
+
+        void copy(Code from, int start, int end) {
+            for (int i = start; i < end; i++) {
+                add(from.op[i], from.x[i], from.y[i], from.label[i]);
+            }
+        }
+
+        boolean isNot(int i) {
+            return i >= 0 && op[i] == ARITHMETIC && x[i] == NOT;
+        }
+
+        boolean isZero(int i) {
+            return i >= 0 && op[i] == PUSH && x[i] == Segment.CONST.ordinal() && y[i] == 0;
+        }
+
+        // the value left by instruction i is 0 or -1
+        boolean isBoolean(int i) {
+            if (i < 0) {
+                return false;
+            }
+            if (op[i] == ARITHMETIC && (x[i] == EQ || x[i] == GT || x[i] == LT)) {
+                return true;
+            }
+            return isZero(i) || isNot(i) && isBoolean(i - 1);
+        }
+    }
+
+    private final VMWriter out;
+    private Code in = new Code();
+    private Code code = new Code();
+    // how many jumps to each label the function has
+    private final Map<String, Integer> refs = new HashMap<>();
+    private int removed;
+
+    // nothing is written by this writer itself, so it needs no channel of its own
+    PeepholeWriter(VMWriter out) {
+        super((WritableByteChannel) null);
+        this.out = out;
+    }
+
+    // instructions taken out so far
+    int removed() {
+        return removed;
+    }
+
+    @Override
+    public String vmOutput() {
+        endFunction();
+        return out.vmOutput();
+    }
+
+    @Override
+    public void flush() {
+        endFunction();
+        out.flush();
+    }
+
+    @Override
+    void writePush(Segment segment, int index) {
+        in.add(PUSH, segment.ordinal(), index, null);
+    }
+
+    @Override
+    void writePop(Segment segment, int index) {
+        in.add(POP, segment.ordinal(), index, null);
+    }
+
+    @Override
+    void writeArithmetic(Command command) {
+        in.add(ARITHMETIC, command.ordinal(), 0, null);
+    }
+
+    @Override
+    void writeLabel(String label) {
+        in.add(LABEL, 0, 0, label);
+    }
+
+    @Override
+    void writeGoto(String label) {
+        in.add(GOTO, 0, 0, label);
+    }
+
+    @Override
+    void writeIf(String label) {
+        in.add(IF_GOTO, 0, 0, label);
+    }
+
+    @Override
+    void writeCall(String name, int nArgs) {
+        in.add(CALL, nArgs, 0, name);
+    }
+
+    @Override
+    void writeFunction(String name, int nLocals) {
+        endFunction();
+        out.writeFunction(name, nLocals);
+    }
+
+    @Override
+    void writeReturn() {
+        in.add(RETURN, 0, 0, null);
+    }
+
+    private void endFunction() {
+        if (in.size == 0) {
+            return;
+        }
+        var before = in.size;
+        simplify();
+        for (int from = 0; (from = rotate(from)) >= 0; ) {
+        }
+        simplify();
+        removed += before - in.size;
+        for (int i = 0; i < in.size; i++) {
+            replay(i);
+        }
+        in.size = 0;
+    }
+
+    private void replay(int i) {
+        switch (in.op[i]) {
+            case PUSH:
+                out.writePush(SEGMENTS[in.x[i]], in.y[i]);
+                break;
+            case POP:
+                out.writePop(SEGMENTS[in.x[i]], in.y[i]);
+                break;
+            case ARITHMETIC:
+                out.writeArithmetic(COMMANDS[in.x[i]]);
+                break;
+            case LABEL:
+                out.writeLabel(in.label[i]);
+                break;
+            case GOTO:
+                out.writeGoto(in.label[i]);
+                break;
+            case IF_GOTO:
+                out.writeIf(in.label[i]);
+                break;
+            case CALL:
+                out.writeCall(in.label[i], in.x[i]);
+                break;
+            default:
+                out.writeReturn();
+                break;
+        }
+    }
+
+    private void countRefs() {
+        refs.clear();
+        for (int i = 0; i < in.size; i++) {
+            if (in.op[i] == GOTO || in.op[i] == IF_GOTO) {
+                refs.merge(in.label[i], 1, Integer::sum);
+            }
+        }
+    }
+
+    private int refs(String label) {
+        return refs.getOrDefault(label, 0);
+    }
+
+    private void unref(String label) {
+        refs.merge(label, -1, Integer::sum);
+    }
+
+    private void swap() {
+        var t = in;
+        in = code;
+        code = t;
+        code.size = 0;
+    }
+
+    // applies the rewrites until nothing changes; every one of them shrinks the code
+    private void simplify() {
+        int size;
+        do {
+            size = in.size;
+            countRefs();
+            for (int i = 0; i < in.size; i++) {
+                append(in.op[i], in.x[i], in.y[i], in.label[i]);
+            }
+            swap();
+        } while (in.size < size);
+    }
+
+    // adds an instruction to code, matching the patterns against what is already there
+    private void append(byte op, int x, int y, String label) {
+        int n = code.size;
+        var top = n > 0 ? code.op[n - 1] : -1;
+        if (op == LABEL && refs(label) == 0) {
+            return;
+        }
+        if ((top == GOTO || top == RETURN) && op != LABEL) {
+            // unreachable
+            if (op == GOTO || op == IF_GOTO) {
+                unref(label);
+            }
+            return;
+        }
+        switch (op) {
+            case LABEL:
+                if (n >= 2 && top == GOTO && code.op[n - 2] == IF_GOTO && label.equals(code.label[n - 2])
+                        && refs(label) == 1 && code.isBoolean(n - 3)) {
+                    var target = code.label[n - 1];
+                    code.size -= 2;
+                    unref(label);
+                    append(ARITHMETIC, NOT, 0, null);
+                    append(IF_GOTO, 0, 0, target);
+                    return;
+                }
+                if (top == GOTO && label.equals(code.label[n - 1])) {
+                    code.size--;
+                    unref(label);
+                    append(op, x, y, label);
+                    return;
+                }
+                break;
+            case ARITHMETIC:
+                if (x == NOT && code.isNot(n - 1)) {
+                    code.size--;
+                    return;
+                }
+                break;
+            case POP:
+                if (top == PUSH && code.x[n - 1] == x && code.y[n - 1] == y) {
+                    code.size--;
+                    return;
+                }
+                break;
+            case IF_GOTO:
+                if (code.isZero(n - 1)) {
+                    code.size--;
+                    unref(label);
+                    return;
+                }
+                if (code.isNot(n - 1) && code.isZero(n - 2)) {
+                    code.size -= 2;
+                    append(GOTO, 0, 0, label);
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        code.add(op, x, y, label);
+    }
+
+    private static boolean straight(byte op) {
+        return op == PUSH || op == POP || op == ARITHMETIC || op == CALL;
+    }
+
+    // rotates the first while loop at or after from; returns where to look next, -1 when done
+    private int rotate(int from) {
+        countRefs();
+        for (int i = from; i < in.size; i++) {
+            if (in.op[i] != LABEL || refs(in.label[i]) != 1) {
+                continue;
+            }
+            int j = i + 1;
+            while (j < in.size && straight(in.op[j])) {
+                j++;
+            }
+            if (j == i + 1 || j == in.size || in.op[j] != IF_GOTO || !in.isNot(j - 1) || refs(in.label[j]) != 1) {
+                continue;
+            }
+            if (!in.isBoolean(j - 2)) {
+                continue;
+            }
+            var head = in.label[i];
+            var exit = in.label[j];
+            int k = j + 1;
+            while (k < in.size && !(in.op[k] == GOTO && head.equals(in.label[k]))) {
+                k++;
+            }
+            if (k + 1 >= in.size || in.op[k + 1] != LABEL || !exit.equals(in.label[k + 1])) {
+                continue;
+            }
+            var body = head + "_BODY";
+            code.copy(in, 0, i);
+            code.add(GOTO, 0, 0, head);
+            code.add(LABEL, 0, 0, body);
+            code.copy(in, j + 1, k);
+            code.add(LABEL, 0, 0, head);
+            code.copy(in, i + 1, j - 1);
+            code.add(IF_GOTO, 0, 0, body);
+            // nothing jumps to the exit any more
+            code.copy(in, k + 2, in.size);
+            swap();
+            return i + 1;
+        }
+        return -1;
+    }
+}
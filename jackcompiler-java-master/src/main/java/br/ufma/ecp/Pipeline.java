@@ -0,0 +1,334 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import br.ufma.ecp.token.Token;
+import br.ufma.ecp.token.TokenStream;
+import br.ufma.ecp.token.TokenType;
+
+/*
+ * Compiles one class on three threads, for very large classes:
+ *
+ *   scanner thread  --token batches-->  parser (calling thread)  --instruction batches-->  writer thread
+ *
+ * The parser only records the VM instructions; encoding them as text and
+ * writing them out both run on the writer thread. Stages hand work over in
+ * batches through SpscQueues, and the empty batches travel back the same
+ * way so steady state allocates no batches.
+ */
+public final class Pipeline {
+
+    static final int BATCH_SIZE = 512;
+    static final int QUEUE_CAPACITY = 64;
+    private static final VMWriter.Segment[] SEGMENTS = VMWriter.Segment.values();
+    private static final VMWriter.Command[] COMMANDS = VMWriter.Command.values();
+
+    private Pipeline() {
+    }
+
+    public static void compile(ByteBuffer input, WritableByteChannel out) throws IOException {
+        compile(input, out, Set.of());
+    }
+
+    public static void compile(ByteBuffer input, WritableByteChannel out, Set<Parser.Optimization> optimizations)
+            throws IOException {
+        compile(input, out, parser -> parser.optimize(optimizations));
+    }
+
+    // setup gets the parser before it runs, to turn on whatever App was asked for
+    static void compile(ByteBuffer input, WritableByteChannel out, Consumer<Parser> setup) throws IOException {
+        try (var tokens = new PipelinedTokens(new Scanner(input));
+                var vmOut = new AsyncWriter(out)) {
+            var parser = new Parser(tokens, vmOut);
+            setup.accept(parser);
+            parser.parse();
+        }
+    }
+
+    private static final class Batch {
+        final Token[] tokens = new Token[BATCH_SIZE];
+        int size;
+        RuntimeException error;
+    }
+
+    // runs the scanner on its own thread, BATCH_SIZE tokens at a time
+    static final class PipelinedTokens implements TokenStream, AutoCloseable {
+
+        private final SpscQueue<Batch> full = new SpscQueue<>(QUEUE_CAPACITY);
+        private final SpscQueue<Batch> empty = new SpscQueue<>(QUEUE_CAPACITY);
+        private final Thread thread;
+
+        private Batch batch;
+        private int pos;
+        private Token eof;
+
+        PipelinedTokens(Scanner scanner) {
+            thread = new Thread(() -> produce(scanner), "jack-scanner");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void produce(Scanner scanner) {
+            var done = false;
+            while (!done) {
+                var next = empty.poll();
+                if (next == null) {
+                    next = new Batch();
+                }
+                next.size = 0;
+                try {
+                    while (next.size < BATCH_SIZE) {
+                        var tk = scanner.nextToken();
+                        next.tokens[next.size++] = tk;
+                        if (tk.type == TokenType.EOF) {
+                            done = true;
+                            break;
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    next.error = e;
+                    done = true;
+                }
+                if (!full.put(next)) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public Token nextToken() {
+            if (eof != null) {
+                return eof;
+            }
+            // a failed batch still delivers the tokens scanned before the error
+            while (batch == null || pos == batch.size) {
+                if (batch != null) {
+                    if (batch.error != null) {
+                        throw batch.error;
+                    }
+                    empty.offer(batch);
+                }
+                batch = full.take();
+                pos = 0;
+                if (batch == null) {
+                    throw new IllegalStateException("token stream closed");
+                }
+            }
+            var tk = batch.tokens[pos++];
+            if (tk.type == TokenType.EOF) {
+                eof = tk;
+            }
+            return tk;
+        }
+
+        // stops the scanner thread if the parser gave up early
+        @Override
+        public void close() {
+            full.close();
+            empty.close();
+        }
+    }
+
+    // a batch of VM instructions, recorded by the parser and encoded by the writer
+    private static final class Instructions {
+        static final byte PUSH = 0, POP = 1, ARITHMETIC = 2, LABEL = 3, GOTO = 4, IF_GOTO = 5, CALL = 6,
+                FUNCTION = 7, RETURN = 8;
+
+        final byte[] op = new byte[BATCH_SIZE];
+        final int[] x = new int[BATCH_SIZE];
+        final int[] y = new int[BATCH_SIZE];
+        final String[] name = new String[BATCH_SIZE];
+        int size;
+
+        void add(byte op, int x, int y, String name) {
+            this.op[size] = op;
+            this.x[size] = x;
+            this.y[size] = y;
+            this.name[size] = name;
+            size++;
+        }
+
+        void replay(VMWriter out) {
+            for (int i = 0; i < size; i++) {
+                switch (op[i]) {
+                    case PUSH:
+                        out.writePush(SEGMENTS[x[i]], y[i]);
+                        break;
+                    case POP:
+                        out.writePop(SEGMENTS[x[i]], y[i]);
+                        break;
+                    case ARITHMETIC:
+                        out.writeArithmetic(COMMANDS[x[i]]);
+                        break;
+                    case LABEL:
+                        out.writeLabel(name[i]);
+                        break;
+                    case GOTO:
+                        out.writeGoto(name[i]);
+                        break;
+                    case IF_GOTO:
+                        out.writeIf(name[i]);
+                        break;
+                    case CALL:
+                        out.writeCall(name[i], y[i]);
+                        break;
+                    case FUNCTION:
+                        out.writeFunction(name[i], y[i]);
+                        break;
+                    default:
+                        out.writeReturn();
+                        break;
+                }
+                name[i] = null;
+            }
+            size = 0;
+        }
+    }
+
+    /*
+     * A VMWriter that only records the instructions, BATCH_SIZE at a time;
+     * a writer thread encodes them into a VMWriter of its own and writes
+     * them to the channel. close() waits for the pending batches and
+     * reports any error the writer hit.
+     */
+    static final class AsyncWriter extends VMWriter implements AutoCloseable {
+
+        private static final Instructions END = new Instructions();
+
+        private final SpscQueue<Instructions> pending = new SpscQueue<>(QUEUE_CAPACITY);
+        private final SpscQueue<Instructions> free = new SpscQueue<>(QUEUE_CAPACITY);
+        private final VMWriter out;
+        private final Thread thread;
+        private volatile IOException error;
+        private Instructions batch = new Instructions();
+        private boolean open = true;
+
+        AsyncWriter(WritableByteChannel channel) {
+            super((WritableByteChannel) null);
+            out = new VMWriter(channel);
+            thread = new Thread(this::drain, "jack-writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void drain() {
+            Instructions next;
+            try {
+                while ((next = pending.take()) != null && next != END) {
+                    next.replay(out);
+                    free.offer(next);
+                }
+                out.flush();
+            } catch (UncheckedIOException e) {
+                error = e.getCause();
+                pending.close();
+            }
+        }
+
+        // the writer's error, never null: the writer closes the queue only after setting it
+        private UncheckedIOException failure() {
+            var e = error;
+            return new UncheckedIOException(e != null ? e : new ClosedChannelException());
+        }
+
+        private void add(byte op, int x, int y, String name) {
+            if (!open) {
+                throw failure();
+            }
+            batch.add(op, x, y, name);
+            if (batch.size == BATCH_SIZE) {
+                send();
+            }
+        }
+
+        private void send() {
+            if (!pending.put(batch)) {
+                throw failure();
+            }
+            batch = free.poll();
+            if (batch == null) {
+                batch = new Instructions();
+            }
+        }
+
+        @Override
+        void writePush(VMWriter.Segment segment, int index) {
+            add(Instructions.PUSH, segment.ordinal(), index, null);
+        }
+
+        @Override
+        void writePop(VMWriter.Segment segment, int index) {
+            add(Instructions.POP, segment.ordinal(), index, null);
+        }
+
+        @Override
+        void writeArithmetic(VMWriter.Command command) {
+            add(Instructions.ARITHMETIC, command.ordinal(), 0, null);
+        }
+
+        @Override
+        void writeLabel(String label) {
+            add(Instructions.LABEL, 0, 0, label);
+        }
+
+        @Override
+        void writeGoto(String label) {
+            add(Instructions.GOTO, 0, 0, label);
+        }
+
+        @Override
+        void writeIf(String label) {
+            add(Instructions.IF_GOTO, 0, 0, label);
+        }
+
+        @Override
+        void writeCall(String name, int nArgs) {
+            add(Instructions.CALL, 0, nArgs, name);
+        }
+
+        @Override
+        void writeFunction(String name, int nLocals) {
+            add(Instructions.FUNCTION, 0, nLocals, name);
+        }
+
+        @Override
+        void writeReturn() {
+            add(Instructions.RETURN, 0, 0, null);
+        }
+
+        // hands what was recorded so far to the writer; close() waits for it to be written
+        @Override
+        public void flush() {
+            if (!open) {
+                throw failure();
+            }
+            if (batch.size > 0) {
+                send();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!open) {
+                return;
+            }
+            open = false;
+            pending.put(END);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while writing", e);
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+}
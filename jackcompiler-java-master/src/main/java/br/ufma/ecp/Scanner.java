@@ -2,6 +2,12 @@ package br.ufma.ecp;
 
 import static br.ufma.ecp.token.TokenType.*;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
 /* import br.ufma.ecp.token.Token;
 import br.ufma.ecp.token.IdentifierToken;
@@ -9,21 +15,59 @@ import br.ufma.ecp.token.IntegerToken;
 import br.ufma.ecp.token.KeywordToken;
 import br.ufma.ecp.token.StringToken;
 import br.ufma.ecp.token.SymbolToken; */
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import br.ufma.ecp.token.Token;
+import br.ufma.ecp.token.TokenStream;
 import br.ufma.ecp.token.TokenType;
 
-public class Scanner {
-
-    private byte[] input;
+/*
+ * Two ways to read tokens:
+ *
+ * - nextToken() returns a Token object, which is what the Parser uses;
+ * - scan() returns the kind ordinal and leaves the token's offset, length
+ *   and line in the scanner, allocating nothing. lexeme() builds the text
+ *   only when asked, symbols and keywords share one String per kind and
+ *   identifiers come from the NamePool.
+ *
+ * The source is either a whole buffer or a stream read in fixed-size
+ * chunks. In stream mode everything before the current token is dropped
+ * when the next chunk is read, so memory is bounded by the chunk size (or
+ * by the longest single token, if that is longer).
+ */
+public class Scanner implements TokenStream {
+
+    private ByteBuffer input;
+    // backing array of heap buffers, indexing it is cheaper than ByteBuffer.get
+    private byte[] array;
+    private int arrayOffset;
+    private int end;
     private int current;
     private int start;
     private int line = 1;
 
+    // stream mode only: where chunks come from and how many bytes were dropped
+    private ReadableByteChannel source;
+    private boolean sourceDone;
+    private int discarded;
+    // while skipping whitespace and comments nothing before current is needed
+    private boolean skipping;
+
+    // the token found by the last scan()
+    private int tokenKind;
+    private int tokenStart;
+    private int tokenLength;
+    private int tokenLine;
+
     private static final Map<String, TokenType> keywords;
- 
+
+    // kind of each single-character symbol, indexed by the character
+    private static final TokenType[] symbols = new TokenType[128];
+
+    // lexeme shared by every token of a kind whose text never changes
+    private static final String[] fixedLexemes = new String[TokenType.values().length];
 
     static {
         keywords = new HashMap<>();
@@ -48,13 +92,102 @@ public class Scanner {
         keywords.put("if", TokenType.IF);
         keywords.put("else", TokenType.ELSE);
         keywords.put("return", TokenType.RETURN);
+
+        for (var entry : keywords.entrySet()) {
+            fixedLexemes[entry.getValue().ordinal()] = entry.getKey();
+        }
+
+        TokenType[] types = { LPAREN, RPAREN, LBRACE, RBRACE, LBRACKET, RBRACKET,
+                COMMA, SEMICOLON, DOT, PLUS, MINUS, ASTERISK, SLASH, AND, OR, NOT, LT, GT, EQ };
+        String chars = "(){}[],;.+-*/&|~<>=";
+        for (int i = 0; i < types.length; i++) {
+            symbols[chars.charAt(i)] = types[i];
+            // interned, Token.toString compares symbol lexemes by reference
+            fixedLexemes[types[i].ordinal()] = String.valueOf(chars.charAt(i)).intern();
+        }
+        fixedLexemes[EOF.ordinal()] = "EOF";
   }
 
-    
+
     public Scanner (byte[] input) {
+        this(input, input.length);
+    }
+
+    // scans only the first 'length' bytes, so callers can hand in a reused buffer
+    public Scanner (byte[] input, int length) {
+        this(ByteBuffer.wrap(input, 0, length));
+    }
+
+    /*
+     * Scans the bytes between the buffer's position and limit, for instance a
+     * MappedByteBuffer from FileChannel.map, without copying them to the heap.
+     * Token offsets are absolute indexes into the buffer.
+     */
+    public Scanner (ByteBuffer input) {
         this.input = input;
-        current = 0;
-        start = 0;
+        this.array = input.hasArray() ? input.array() : null;
+        this.arrayOffset = input.hasArray() ? input.arrayOffset() : 0;
+        this.end = input.limit();
+        current = input.position();
+        start = current;
+    }
+
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    // reads the source in chunks of chunkSize bytes as the scanner needs them
+    public Scanner (ReadableByteChannel source, int chunkSize) {
+        this(ByteBuffer.wrap(new byte[chunkSize], 0, 0));
+        this.source = source;
+    }
+
+    public Scanner (ReadableByteChannel source) {
+        this(source, DEFAULT_CHUNK_SIZE);
+    }
+
+    public Scanner (InputStream source, int chunkSize) {
+        this(Channels.newChannel(source), chunkSize);
+    }
+
+    public Scanner (InputStream source) {
+        this(Channels.newChannel(source), DEFAULT_CHUNK_SIZE);
+    }
+
+    /*
+     * Stream mode: moves the bytes still needed to the front of the buffer
+     * and reads the next chunk after them. The buffer only grows when a
+     * single token does not fit. Returns false at the end of the source.
+     */
+    private boolean fill () {
+        if (source == null || sourceDone)
+            return false;
+
+        int keep = skipping ? current : start;
+        if (keep > 0) {
+            System.arraycopy(array, keep, array, 0, end - keep);
+            end -= keep;
+            current -= keep;
+            start -= keep;
+            discarded += keep;
+        }
+        if (end == array.length) {
+            array = Arrays.copyOf(array, array.length * 2);
+        }
+
+        try {
+            int read;
+            do {
+                read = source.read(ByteBuffer.wrap(array, end, array.length - end));
+            } while (read == 0);
+            if (read < 0) {
+                sourceDone = true;
+                return false;
+            }
+            end += read;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        input = ByteBuffer.wrap(array);
+        return true;
     }
 
     private void skipBlockComments() {
@@ -66,9 +199,9 @@ public class Scanner {
             if (ch == '\n')
                 line++;
             if ( ch == 0) { // eof, lexical error
-                System.exit(1);
+                throw new IllegalStateException("[line " + line + "] Error at end: Unterminated comment");
             }
-         
+
             if (ch == '*') {
                for (ch = peek(); ch == '*';  advance(), ch = peek()) ;
                 if (ch == '/') {
@@ -99,136 +232,177 @@ public class Scanner {
     }
 
     private char peekNext () {
+        if (current + 1 >= end)
+            fill();
         int next = current + 1;
-        if ( next  < input.length) {
-            return (char)input[next];
+        if ( next  < end) {
+            return (char)at(next);
         } else {
             return 0;
         }
    }
 
     public Token nextToken () {
+        var type = TokenType.fromOrdinal(scan());
+        return new Token(type, lexeme(), tokenLine);
+    }
+
+    // scans the next token and returns its kind (a TokenType ordinal)
+    public int scan () {
 
+        skipping = true;
         skipWhitespace();
+        while (peek() == '/' && (peekNext() == '/' || peekNext() == '*')) {
+            if (peekNext() == '/')
+                skipLineComments();
+            else
+                skipBlockComments();
+            skipWhitespace();
+        }
+        skipping = false;
 
         start = current;
         char ch = peek();
+        TokenType type;
 
         if (Character.isDigit(ch)) {
-            return number();
+            type = number();
+        } else if (isAlpha(ch)) {
+            type = identifier();
+        } else if (ch == '"') {
+            type = string();
+        } else if (ch == 0) {
+            type = EOF;
+        } else {
+            advance();
+            type = ch < symbols.length && symbols[ch] != null ? symbols[ch] : ILLEGAL;
         }
 
-        if (isAlpha(ch)) {
-            return identifier();
+        if (type != STRING) {
+            tokenStart = start;
+            tokenLength = current - start;
         }
+        tokenLine = line;
+        tokenKind = type.ordinal();
+        return tokenKind;
+    }
+
+    public int tokenKind () {
+        return tokenKind;
+    }
+
+    // offset from the beginning of the source, also in stream mode
+    public int tokenStart () {
+        return discarded + tokenStart;
+    }
+
+    public int tokenLength () {
+        return tokenLength;
+    }
+
+    public int tokenLine () {
+        return tokenLine;
+    }
+
+    // text of the last scanned token; only literals and new identifiers allocate
+    public String lexeme () {
+        var fixed = fixedLexemes[tokenKind];
+        if (fixed != null)
+            return fixed;
+        if (tokenKind == ILLEGAL.ordinal())
+            return Character.toString((char)at(tokenStart));
+        if (tokenKind == IDENT.ordinal())
+            return NamePool.SHARED.intern(input, tokenStart, tokenLength);
+        if (array != null)
+            return new String(array, arrayOffset + tokenStart, tokenLength, StandardCharsets.UTF_8);
+        var bytes = new byte[tokenLength];
+        input.get(tokenStart, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
 
-        switch (ch) {
-
-            case '*':
-                advance();
-                return new Token (TokenType.ASTERISK,"*", line); 
-            case '.':
-                advance();
-                return new Token (TokenType.DOT,".", line); 
-            case '&':
-                advance();
-                return new Token (TokenType.AND,"&", line); 
-            case '|':
-                advance();
-                return new Token (TokenType.OR,"|", line); 
-            case '~':
-                advance();
-                return new Token (TokenType.NOT,"~", line); 
-
-            case '>':
-                advance();
-                return new Token (TokenType.GT,">", line); 
-            case '<':
-                advance();
-                return new Token (TokenType.LT,"<", line); 
-            case '=':
-                advance();
-                return new Token (TokenType.EQ,"=", line); 
-            case '(':
-                advance();
-                return new Token (TokenType.LPAREN,"(", line); 
-            case ')':
-                advance();
-                return new Token (TokenType.RPAREN,")", line); 
-            case '{':
-                advance();
-                return new Token (TokenType.LBRACE,"{", line); 
-            case '}':
-                advance();
-                return new Token (TokenType.RBRACE,"}", line); 
-            case '[':
-                advance();
-                return new Token (TokenType.LBRACKET,"[", line); 
-            case ']':
-                advance();
-                return new Token (TokenType.RBRACKET,"]", line); 
-            case ';':
-                advance();
-                return new Token (TokenType.SEMICOLON,";", line); 
-            case ',':
-                advance();
-                return new Token (TokenType.COMMA,",", line);
-            case '+':
-                advance();
-                return new Token(TokenType.PLUS, "+", line);
-            case '-':
-                advance();
-                return new Token (MINUS,"-", line);
-            case '/':
-                if (peekNext() == '/') {
-                    skipLineComments();
-                    return nextToken();
-                } else if (peekNext() == '*') {
-                    skipBlockComments();
-                    return nextToken();
+    private TokenType identifier() {
+        while (isAlphaNumeric(peek())) advance();
+
+        return keyword(current - start);
+    }
+
+    // keyword recognition on the byte slice: switch on length and first byte,
+    // then compare the rest (must be kept in sync with the keywords map)
+    private TokenType keyword(int length) {
+        switch (length) {
+            case 2:
+                switch (at(start)) {
+                    case 'd': return rest("do") ? DO : IDENT;
+                    case 'i': return rest("if") ? IF : IDENT;
                 }
-                else {
-                    advance();
-                    return new Token (TokenType.SLASH,"/", line);
+                break;
+            case 3:
+                switch (at(start)) {
+                    case 'i': return rest("int") ? INT : IDENT;
+                    case 'v': return rest("var") ? VAR : IDENT;
+                    case 'l': return rest("let") ? LET : IDENT;
+                }
+                break;
+            case 4:
+                switch (at(start)) {
+                    case 'c': return rest("char") ? CHAR : IDENT;
+                    case 'v': return rest("void") ? VOID : IDENT;
+                    case 't': return rest("true") ? TRUE : rest("this") ? THIS : IDENT;
+                    case 'n': return rest("null") ? NULL : IDENT;
+                    case 'e': return rest("else") ? ELSE : IDENT;
+                }
+                break;
+            case 5:
+                switch (at(start)) {
+                    case 'w': return rest("while") ? WHILE : IDENT;
+                    case 'c': return rest("class") ? CLASS : IDENT;
+                    case 'f': return rest("field") ? FIELD : rest("false") ? FALSE : IDENT;
+                }
+                break;
+            case 6:
+                switch (at(start)) {
+                    case 'm': return rest("method") ? METHOD : IDENT;
+                    case 's': return rest("static") ? STATIC : IDENT;
+                    case 'r': return rest("return") ? RETURN : IDENT;
                 }
-            case '"':
-                return string();
-            case 0:
-                return new Token (EOF,"EOF", line);
-            default:
-                advance();
-                return new Token(ILLEGAL, Character.toString(ch), line);
+                break;
+            case 7:
+                return at(start) == 'b' && rest("boolean") ? BOOLEAN : IDENT;
+            case 8:
+                return at(start) == 'f' && rest("function") ? FUNCTION : IDENT;
+            case 11:
+                return at(start) == 'c' && rest("constructor") ? CONSTRUCTOR : IDENT;
         }
+        return IDENT;
     }
 
-    private Token identifier() {
-        while (isAlphaNumeric(peek())) advance();
-
-        String id = new String(input, start, current-start, StandardCharsets.UTF_8)  ;
-        TokenType type = keywords.get(id);
-        if (type == null) type = IDENT;
-        return new Token(type, id, line);
+    // compares the token with word, the first byte is already known to match
+    private boolean rest(String word) {
+        for (int i = 1; i < word.length(); i++) {
+            if (at(start + i) != word.charAt(i))
+                return false;
+        }
+        return true;
     }
 
-    private Token number() {
+    private TokenType number() {
         while (Character.isDigit(peek())) {
             advance();
         }
-        
-            String num = new String(input, start, current-start, StandardCharsets.UTF_8)  ;
-            return new Token(NUMBER, num, line);
+        return NUMBER;
     }
 
-    private Token string () {
+    // the lexeme excludes the quotes
+    private TokenType string () {
         advance();
         start = current;
         while (peek() != '"' && peek() != 0) {
             advance();
         }
-        String s = new String(input, start, current-start, StandardCharsets.UTF_8);
-        Token token = new Token (TokenType.STRING,s, line);
+        tokenStart = start;
+        tokenLength = current - start;
         advance();
-        return token;
+        return STRING;
  }
 
     private void advance()  {
@@ -243,18 +417,22 @@ public class Scanner {
                (c >= 'A' && c <= 'Z') ||
                 c == '_';
       }
-    
+
       private boolean isAlphaNumeric(char c) {
         return isAlpha(c) || Character.isDigit((c));
       }
-    
+
+
+    private byte at (int index) {
+        return array != null ? array[arrayOffset + index] : input.get(index);
+    }
 
     private char peek () {
-        if (current < input.length)
-           return (char)input[current];
+        if (current < end || fill())
+           return (char)at(current);
        return 0;
     }
 
 
-    
+
 }
@@ -0,0 +1,190 @@
+package br.ufma.ecp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import br.ufma.ecp.token.Token;
+import br.ufma.ecp.token.TokenStream;
+import br.ufma.ecp.token.TokenType;
+
+/*
+ * What each class of a program declares: its subroutines, whether they are
+ * functions, methods or constructors, and how many parameters they take.
+ *
+ * build() reads only the declarations (subroutine bodies are skipped by
+ * counting braces), one file per task on a pool, before any code is
+ * generated; the index is immutable afterwards, so the compiles of all the
+ * files share it without locking. The Parser uses it to tell a function of
+ * its own class from a method and to check calls into the other classes.
+ */
+final class SignatureIndex {
+
+    record Subroutine(String className, String name, TokenType kind, String returnType, int nParams) {
+
+        boolean isMethod() {
+            return kind == TokenType.METHOD;
+        }
+
+        // what a call passes, the receiver included
+        int nArgs() {
+            return isMethod() ? nParams + 1 : nParams;
+        }
+    }
+
+    record ClassInfo(String name, int nFields, int nStatics, Map<String, Subroutine> subroutines) {
+    }
+
+    private final Map<String, ClassInfo> classes;
+
+    SignatureIndex(Map<String, ClassInfo> classes) {
+        this.classes = Map.copyOf(classes);
+    }
+
+    boolean has(String className) {
+        return classes.containsKey(className);
+    }
+
+    ClassInfo get(String className) {
+        return classes.get(className);
+    }
+
+    // null when the class or the subroutine is not in the index
+    Subroutine find(String className, String name) {
+        var info = classes.get(className);
+        return info != null ? info.subroutines().get(name) : null;
+    }
+
+    int size() {
+        return classes.size();
+    }
+
+    /*
+     * How many literals each class may intern with STRINGS: the statics the
+     * declared ones leave free, split evenly so the program never needs more
+     * than the platform has, whatever order its classes are compiled in.
+     */
+    int stringsPerClass() {
+        var declared = 0;
+        for (ClassInfo info : classes.values()) {
+            declared += info.nStatics();
+        }
+        return classes.isEmpty() ? 0 : Math.max(0, CodeGenerator.STATIC_SEGMENT - declared) / classes.size();
+    }
+
+
+    // a file that does not parse is left out; compiling it reports the error
+    static SignatureIndex build(List<File> files, int jobs) {
+        var pool = Executors.newFixedThreadPool(Math.max(1, Math.min(jobs, files.size())));
+        try {
+            var futures = new ArrayList<Future<ClassInfo>>();
+            for (File f : files) {
+                futures.add(pool.submit(() -> declarations(f)));
+            }
+            var classes = new HashMap<String, ClassInfo>();
+            for (Future<ClassInfo> future : futures) {
+                var info = future.get();
+                if (info != null) {
+                    classes.putIfAbsent(info.name(), info);
+                }
+            }
+            return new SignatureIndex(classes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static ClassInfo declarations(File f) {
+        try {
+            return declarations(new Scanner(Files.readAllBytes(f.toPath())));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    static ClassInfo declarations(TokenStream tokens) {
+        expect(tokens, TokenType.CLASS);
+        var className = expect(tokens, TokenType.IDENT).lexeme;
+        expect(tokens, TokenType.LBRACE);
+        var nFields = 0;
+        var nStatics = 0;
+        var subroutines = new HashMap<String, Subroutine>();
+        while (true) {
+            var tk = tokens.nextToken();
+            switch (tk.type) {
+                case STATIC:
+                case FIELD: {
+                    tokens.nextToken(); // the type
+                    var names = 0;
+                    do {
+                        expect(tokens, TokenType.IDENT);
+                        names++;
+                    } while (tokens.nextToken().type == TokenType.COMMA);
+                    if (tk.type == TokenType.FIELD) {
+                        nFields += names;
+                    } else {
+                        nStatics += names;
+                    }
+                    break;
+                }
+                case CONSTRUCTOR:
+                case FUNCTION:
+                case METHOD: {
+                    var returnType = tokens.nextToken().lexeme;
+                    var name = expect(tokens, TokenType.IDENT).lexeme;
+                    expect(tokens, TokenType.LPAREN);
+                    var nParams = 0;
+                    for (var t = tokens.nextToken(); t.type != TokenType.RPAREN; t = tokens.nextToken()) {
+                        if (t.type == TokenType.EOF) {
+                            throw new IllegalStateException("unexpected end of " + className);
+                        }
+                        if (nParams == 0 || t.type == TokenType.COMMA) {
+                            nParams++;
+                        }
+                    }
+                    skipBody(tokens, className);
+                    subroutines.put(name, new Subroutine(className, name, tk.type, returnType, nParams));
+                    break;
+                }
+                case RBRACE:
+                    return new ClassInfo(className, nFields, nStatics, Map.copyOf(subroutines));
+                default:
+                    throw new IllegalStateException("unexpected '" + tk.lexeme + "' in " + className);
+            }
+        }
+    }
+
+    private static void skipBody(TokenStream tokens, String className) {
+        expect(tokens, TokenType.LBRACE);
+        for (int depth = 1; depth > 0; ) {
+            var t = tokens.nextToken();
+            if (t.type == TokenType.LBRACE) {
+                depth++;
+            } else if (t.type == TokenType.RBRACE) {
+                depth--;
+            } else if (t.type == TokenType.EOF) {
+                throw new IllegalStateException("unexpected end of " + className);
+            }
+        }
+    }
+
+    private static Token expect(TokenStream tokens, TokenType type) {
+        var t = tokens.nextToken();
+        if (t.type != type) {
+            throw new IllegalStateException("expected " + type + ", got '" + t.lexeme + "'");
+        }
+        return t;
+    }
+}
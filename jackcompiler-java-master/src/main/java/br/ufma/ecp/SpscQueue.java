@@ -0,0 +1,88 @@
+package br.ufma.ecp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Bounded lock-free queue for exactly one producer thread and one consumer
+ * thread. Each side owns one index and only reads the other's, so a slot is
+ * handed over with a single ordered store and no locks.
+ */
+final class SpscQueue<E> {
+
+    private final Object[] ring;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // next slot to take, written by the consumer
+    private final AtomicLong tail = new AtomicLong(); // next slot to fill, written by the producer
+
+    private volatile boolean closed;
+
+    // capacity is rounded up to a power of two
+    SpscQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        ring = new Object[size];
+        mask = size - 1;
+    }
+
+    boolean offer(E e) {
+        long t = tail.get();
+        if (t - head.get() == ring.length) {
+            return false;
+        }
+        ring[(int) t & mask] = e;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+        int slot = (int) h & mask;
+        E e = (E) ring[slot];
+        ring[slot] = null;
+        head.lazySet(h + 1);
+        return e;
+    }
+
+    // blocks while the queue is full; returns false if the queue was closed
+    boolean put(E e) {
+        for (int idle = 0; !offer(e); idle++) {
+            if (closed) {
+                return false;
+            }
+            backOff(idle);
+        }
+        return true;
+    }
+
+    // blocks while the queue is empty; returns null if the queue was closed
+    E take() {
+        E e;
+        for (int idle = 0; (e = poll()) == null; idle++) {
+            if (closed) {
+                return poll();
+            }
+            backOff(idle);
+        }
+        return e;
+    }
+
+    // wakes up and fails any waiting put/take, used when one stage gives up
+    void close() {
+        closed = true;
+    }
+
+    // spin briefly, then yield, then sleep, so a stalled stage does not burn a core
+    private static void backOff(int idle) {
+        if (idle < 100) {
+            Thread.onSpinWait();
+        } else if (idle < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+    }
+}
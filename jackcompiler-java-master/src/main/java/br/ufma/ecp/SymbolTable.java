@@ -1,8 +1,16 @@
 package br.ufma.ecp;
 
-import java.util.HashMap;
-import java.util.Map;
-
+import java.util.Arrays;
+
+/*
+ * Class and subroutine scopes as open addressing tables over plain arrays.
+ * Identifiers from the Scanner are interned by the NamePool, so the String
+ * instance is the identifier's id: its hash is computed once and a hit is
+ * usually an == comparison. Counters are an int[] indexed by Kind ordinal.
+ *
+ * startSubroutine() does not clear the subroutine table, it bumps a
+ * generation counter: slots written under an older generation read as empty.
+ */
 public class SymbolTable {
 
     public enum Kind {
@@ -12,32 +20,103 @@ public class SymbolTable {
     public static record Symbol(String name, String type, Kind kind, int index) {
     }
 
-    private Map<String, Symbol> classScope;
-    private Map<String, Symbol> subroutineScope;
-    private Map<Kind, Integer> countVars;
+    // linear probing, kept at most half full
+    private static final class Scope {
+        String[] names = new String[16];
+        int[] hashes = new int[16];
+        Symbol[] symbols = new Symbol[16];
+        // a slot is in use when its generation is the scope's
+        int[] generations = new int[16];
+        int generation = 1;
+        int size;
+
+        void reset() {
+            size = 0;
+            if (++generation == 0) {
+                // wrapped around, old slots could look current again
+                Arrays.fill(generations, 0);
+                generation = 1;
+            }
+        }
 
-    public SymbolTable() {
-        classScope = new HashMap<>();
-        subroutineScope = new HashMap<>();
-        countVars = new HashMap<>();
-
-        countVars.put(Kind.ARG, 0);
-        countVars.put(Kind.VAR, 0);
-        countVars.put(Kind.STATIC, 0);
-        countVars.put(Kind.FIELD, 0);
-        
+        Symbol get(String name, int hash) {
+            int mask = names.length - 1;
+            for (int slot = hash & mask; generations[slot] == generation; slot = (slot + 1) & mask) {
+                var n = names[slot];
+                if (n == name || hashes[slot] == hash && n.equals(name)) {
+                    return symbols[slot];
+                }
+            }
+            return null;
+        }
+
+        // false when the name is already there
+        boolean put(Symbol symbol, int hash) {
+            int mask = names.length - 1;
+            int slot = hash & mask;
+            for (; generations[slot] == generation; slot = (slot + 1) & mask) {
+                var n = names[slot];
+                if (n == symbol.name() || hashes[slot] == hash && n.equals(symbol.name())) {
+                    return false;
+                }
+            }
+            names[slot] = symbol.name();
+            hashes[slot] = hash;
+            symbols[slot] = symbol;
+            generations[slot] = generation;
+            if (++size * 2 > names.length) {
+                grow();
+            }
+            return true;
+        }
+
+        private void grow() {
+            var oldNames = names;
+            var oldHashes = hashes;
+            var oldSymbols = symbols;
+            var oldGenerations = generations;
+            int capacity = oldNames.length * 2;
+            names = new String[capacity];
+            hashes = new int[capacity];
+            symbols = new Symbol[capacity];
+            generations = new int[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldNames.length; i++) {
+                if (oldGenerations[i] == generation) {
+                    int slot = oldHashes[i] & mask;
+                    while (generations[slot] == generation) {
+                        slot = (slot + 1) & mask;
+                    }
+                    names[slot] = oldNames[i];
+                    hashes[slot] = oldHashes[i];
+                    symbols[slot] = oldSymbols[i];
+                    generations[slot] = generation;
+                }
+            }
+        }
     }
 
-    public void startSubroutine() {
+    private final Scope classScope = new Scope();
+    private final Scope subroutineScope = new Scope();
+    private final int[] countVars = new int[Kind.values().length];
 
-        subroutineScope.clear();
-        countVars.put(Kind.ARG, 0);
-        countVars.put(Kind.VAR, 0);
+    public SymbolTable() {
+    }
 
+    // forgets every symbol, keeping the tables for the next class
+    void reset() {
+        classScope.reset();
+        startSubroutine();
+        Arrays.fill(countVars, 0);
+    }
 
+    public void startSubroutine() {
+        subroutineScope.reset();
+        countVars[Kind.ARG.ordinal()] = 0;
+        countVars[Kind.VAR.ordinal()] = 0;
     }
 
-    private Map<String,Symbol> scope (Kind kind) {
+    private Scope scope (Kind kind) {
         if (kind == Kind.STATIC || kind == Kind.FIELD){
             return classScope;
         } else {
@@ -45,27 +124,26 @@ public class SymbolTable {
         }
     }
 
-    void define(String name, String type, Kind kind) {
-
-        Map<String,Symbol> scopeTable = scope(kind);
-        if (scopeTable.get(name) != null) throw new RuntimeException ("variable already defined");
-
-        Symbol s = new Symbol(name, type, kind, varCount(kind));
-        scopeTable.put(name, s);
-
-         countVars.put(kind, countVars.get(kind) + 1);
+    private static int hash(String name) {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
+    }
 
+    void define(String name, String type, Kind kind) {
+        Symbol s = new Symbol(name, type, kind, countVars[kind.ordinal()]);
+        if (!scope(kind).put(s, hash(name))) throw new RuntimeException ("variable already defined");
+        countVars[kind.ordinal()]++;
     }
 
     public Symbol resolve (String name) {
-        Symbol s = subroutineScope.get(name);
+        int hash = hash(name);
+        Symbol s = subroutineScope.get(name, hash);
         if (s != null) return s;
-        else return classScope.get(name);
-        
+        else return classScope.get(name, hash);
     }
 
     int varCount(Kind kind) {
-        return countVars.get(kind);
+        return countVars[kind.ordinal()];
     }
 
-}
\ No newline at end of file
+}
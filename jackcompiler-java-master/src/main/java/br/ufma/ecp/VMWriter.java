@@ -1,7 +1,31 @@
 package br.ufma.ecp;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Encodes VM instructions as ASCII into a reusable buffer that is drained
+ * into a channel whenever it fills up, so memory stays flat however large
+ * the output grows. Without a channel the bytes are kept in memory and
+ * vmOutput() returns them as text.
+ */
 public class VMWriter {
-    private StringBuilder vmOutput = new StringBuilder();
+    static final int BUFFER_SIZE = 8192;
+
+    // a heap buffer: the encoder writes it a byte at a time, which is measurably
+    // slower on a direct buffer, and channels copy it out in one block anyway
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final WritableByteChannel out;
+    private final ByteArrayOutputStream memory;
+
+    // scratch space for integer formatting, digits are written right to left
+    private final byte[] digits = new byte[11];
 
     enum Segment {
         CONST("constant"),
@@ -15,9 +39,15 @@ public class VMWriter {
 
         private Segment(String value) {
             this.value = value;
+            this.push = ascii("push " + value + " ");
+            this.pop = ascii("pop " + value + " ");
         }
 
         public String value;
+
+        // whole instruction prefixes, encoded once
+        private final byte[] push;
+        private final byte[] pop;
     };
 
     enum Command {
@@ -29,48 +59,179 @@ public class VMWriter {
         LT,
         AND,
         OR,
-        NOT
+        NOT;
+
+        // "add\n", "sub\n", ... instead of lowercasing the name on every call
+        private final byte[] line = ascii(name().toLowerCase() + "\n");
     };
 
+    private static final byte[] LABEL = ascii("label ");
+    private static final byte[] GOTO = ascii("goto ");
+    private static final byte[] IF_GOTO = ascii("if-goto ");
+    private static final byte[] CALL = ascii("call ");
+    private static final byte[] FUNCTION = ascii("function ");
+    private static final byte[] RETURN = ascii("return\n");
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public VMWriter() {
+        memory = new ByteArrayOutputStream();
+        out = Channels.newChannel(memory);
+    }
+
+    public VMWriter(WritableByteChannel out) {
+        this.memory = null;
+        this.out = out;
+    }
+
+    public VMWriter(OutputStream out) {
+        this(Channels.newChannel(out));
+    }
+
     public String vmOutput() {
-        return vmOutput.toString();
+        if (memory == null) {
+            throw new IllegalStateException("the output was streamed to a channel");
+        }
+        flush();
+        return memory.toString(StandardCharsets.US_ASCII);
+    }
+
+    // drops the output kept in memory, keeping the buffers for the next class
+    void reset() {
+        if (memory == null) {
+            throw new IllegalStateException("the output was streamed to a channel");
+        }
+        buffer.clear();
+        memory.reset();
+    }
+
+    // writes whatever is still buffered to the channel
+    public void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.clear();
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    // names and labels are Jack identifiers, plain ASCII
+    private void put(String s) {
+        int length = s.length();
+        if (length > BUFFER_SIZE) {
+            flush();
+            var bytes = s.getBytes(StandardCharsets.US_ASCII);
+            ByteBuffer wrap = ByteBuffer.wrap(bytes);
+            try {
+                while (wrap.hasRemaining()) {
+                    out.write(wrap);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            buffer.put((byte) s.charAt(i));
+        }
+    }
+
+    private void put(byte[] bytes) {
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void put(char c) {
+        ensure(1);
+        buffer.put((byte) c);
+    }
+
+    private void putInt(int value) {
+        ensure(digits.length);
+        if (value == 0) {
+            buffer.put((byte) '0');
+            return;
+        }
+        long v = value;
+        boolean negative = v < 0;
+        if (negative) {
+            v = -v;
+        }
+        int pos = digits.length;
+        while (v > 0) {
+            digits[--pos] = (byte) ('0' + (v % 10));
+            v /= 10;
+        }
+        if (negative) {
+            digits[--pos] = '-';
+        }
+        buffer.put(digits, pos, digits.length - pos);
     }
 
     void writePush(Segment segment, int index) {
-        vmOutput.append(String.format("push %s %d\n", segment.value, index));
+        put(segment.push);
+        putInt(index);
+        put('\n');
     }
 
     void writePop(Segment segment, int index) {
-
-        vmOutput.append(String.format("pop %s %d\n", segment.value, index));
+        put(segment.pop);
+        putInt(index);
+        put('\n');
     }
 
     void writeArithmetic(Command command) {
-        vmOutput.append(String.format("%s\n", command.name().toLowerCase()));
+        put(command.line);
     }
 
     void writeLabel(String label) {
-        vmOutput.append(String.format("label %s\n", label));
+        put(LABEL);
+        put(label);
+        put('\n');
     }
 
     void writeGoto(String label) {
-        vmOutput.append(String.format("goto %s\n", label));
+        put(GOTO);
+        put(label);
+        put('\n');
     }
 
     void writeIf(String label) {
-        vmOutput.append(String.format("if-goto %s\n", label));
+        put(IF_GOTO);
+        put(label);
+        put('\n');
     }
 
     void writeCall(String name, int nArgs) {
-        vmOutput.append(String.format("call %s %d\n", name, nArgs));
+        put(CALL);
+        put(name);
+        put(' ');
+        putInt(nArgs);
+        put('\n');
     }
 
     void writeFunction(String name, int nLocals) {
-        vmOutput.append(String.format("function %s %d\n", name, nLocals));
+        put(FUNCTION);
+        put(name);
+        put(' ');
+        putInt(nLocals);
+        put('\n');
     }
 
     void writeReturn() {
-        vmOutput.append(String.format("return\n"));
+        put(RETURN);
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,7 @@
+package br.ufma.ecp.token;
+
+// where the Parser pulls its tokens from; after EOF it keeps returning EOF
+public interface TokenStream {
+
+    Token nextToken();
+}
@@ -36,6 +36,13 @@ public enum TokenType {
 
      ILLEGAL;
 
+     private static final TokenType[] byOrdinal = values();
+
+     // inverse of ordinal(), without the copy values() makes on every call
+     static public TokenType fromOrdinal (int ordinal) {
+        return byOrdinal[ordinal];
+    }
+
      static public boolean isSymbol (char c) {
         String symbols = "{}()[].,;+-*/&|<>=~";
         return symbols.indexOf(c) > -1;
@@ -0,0 +1,111 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import br.ufma.ecp.Ast.Kind;
+import br.ufma.ecp.Parser.Optimization;
+
+public class AstTest extends TestSupport {
+
+    // the programs of project 11 that ship with the compiler
+    static List<Path> programs() throws IOException {
+        try (Stream<Path> files = Files.walk(Paths.get("src/main/java/br/ufma/ecp/11"))) {
+            return files.filter(p -> p.toString().endsWith(".jack")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static String compile(byte[] input, Set<Optimization> optimizations, boolean ast) {
+        var parser = new Parser(input, Parser.Output.VM).optimize(optimizations);
+        if (ast) {
+            parser.buildAst();
+        }
+        parser.parse();
+        return parser.VMOutput();
+    }
+
+    @Test
+    public void testSameOutput () throws IOException {
+        for (Path program : programs()) {
+            var input = Files.readAllBytes(program);
+            for (Set<Optimization> optimizations : List.of(EnumSet.noneOf(Optimization.class), EnumSet.of(Optimization.FOLD), EnumSet.allOf(Optimization.class))) {
+                assertEquals(program + " " + optimizations, compile(input, optimizations, false),
+                        compile(input, optimizations, true));
+            }
+        }
+    }
+
+    @Test
+    public void testTree () {
+        var input = """
+            class Main {
+                field int x;
+                method int f (int a) {
+                    var int i;
+                    while (i < a) {
+                        let i = i + 1;
+                    }
+                    if (i = 0) { return -1; } else { do Output.printInt(i); }
+                    return x;
+                }
+            }
+            """;
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8), Parser.Output.VM).buildAst();
+        parser.parse();
+        var ast = parser.ast();
+
+        assertEquals(Kind.CLASS, ast.kind(0));
+        assertEquals(1, ast.a(0));
+        var sub = ast.first(0);
+        assertEquals(Kind.SUBROUTINE, ast.kind(sub));
+        assertEquals("Main.f", ast.text(sub));
+        assertEquals(1, ast.c(sub));
+
+        var body = ast.first(sub);
+        var loop = ast.first(body);
+        assertEquals(Kind.WHILE, ast.kind(loop));
+        assertEquals(Kind.BINARY, ast.kind(ast.first(loop)));
+        var branch = ast.next(loop);
+        assertEquals(Kind.IF, ast.kind(branch));
+        var otherwise = ast.next(ast.next(ast.first(branch)));
+        assertEquals(Kind.DO, ast.kind(ast.first(otherwise)));
+        assertEquals(Kind.CALL, ast.kind(ast.first(ast.first(otherwise))));
+        var ret = ast.next(branch);
+        assertEquals(Kind.RETURN, ast.kind(ret));
+        assertEquals(Kind.VAR, ast.kind(ast.first(ret)));
+        assertEquals(Ast.NONE, ast.next(ret));
+    }
+
+    // one tree, generated again with other settings without parsing again
+    @Test
+    public void testReuse () throws IOException {
+        var input = fromFile("Square/SquareGame.jack").getBytes(StandardCharsets.UTF_8);
+        var parser = new Parser(input, Parser.Output.VM).buildAst();
+        parser.parse();
+
+        var out = new ByteArrayOutputStream();
+        var writer = new VMWriter(Channels.newChannel(out));
+        var generator = new CodeGenerator(writer);
+        generator.optimize(EnumSet.of(Optimization.FOLD));
+        parser.ast().emit(generator);
+        writer.flush();
+
+        assertEquals(compile(input, EnumSet.of(Optimization.FOLD), false), out.toString(StandardCharsets.US_ASCII));
+        assertTrue(parser.ast().size() > 100);
+    }
+}
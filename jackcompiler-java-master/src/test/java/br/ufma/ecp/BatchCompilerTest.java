@@ -0,0 +1,122 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.ufma.ecp.Parser.Optimization;
+
+public class BatchCompilerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String MAIN = """
+        class Main {
+            function int main (int n) {
+                return Helper.twice(n) + 1;
+            }
+        }
+        """;
+
+    private static final String HELPER = """
+        class Helper {
+            function int twice (int a) { return a + a; }
+            function int unused () { return 7; }
+        }
+        """;
+
+    private Path write(String name, String source) throws IOException {
+        var file = folder.getRoot().toPath().resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, source);
+        return file;
+    }
+
+    private static String vm(Path jack) throws IOException {
+        return Files.readString(Path.of(App.outputFileName(jack.toString())));
+    }
+
+    private static boolean run(App.Options options, File cacheDir, Path root) throws IOException {
+        var compiler = new BatchCompiler(options, cacheDir);
+        try {
+            return compiler.run(List.of(root));
+        } finally {
+            compiler.shutdown();
+        }
+    }
+
+    // more files than fit in flight with one job, one of them broken
+    @Test
+    public void testTree () throws IOException {
+        var main = write("a/Main.jack", MAIN);
+        var helper = write("a/Helper.jack", HELPER);
+        for (int i = 0; i < 2 * BatchCompiler.IN_FLIGHT_PER_JOB; i++) {
+            write("b/C" + i + ".jack", "class C" + i + " { function int f () { return " + i + "; } }");
+        }
+        var broken = write("b/sub/Broken.jack", "class Broken { function void f ( }");
+
+        var options = new App.Options();
+        assertFalse(run(options, null, folder.getRoot().toPath()));
+
+        assertFalse(Files.exists(Path.of(App.outputFileName(broken.toString()))));
+        for (int i = 0; i < 2 * BatchCompiler.IN_FLIGHT_PER_JOB; i++) {
+            assertTrue(vm(folder.getRoot().toPath().resolve("b/C" + i + ".jack")).startsWith("function C" + i + ".f 0"));
+        }
+        var vm = new VMInterpreter(vm(main), vm(helper));
+        assertEquals(11, vm.call("Main.main", 5));
+    }
+
+    // each directory is a program, compiled with the options it was given
+    @Test
+    public void testOptions () throws IOException {
+        var main = write("a/Main.jack", MAIN);
+        var helper = write("a/Helper.jack", HELPER);
+        var cacheDir = folder.newFolder("cache");
+
+        var options = new App.Options();
+        options.jobs = 2;
+        options.optimizations = EnumSet.of(Optimization.DCE);
+        assertTrue(run(options, cacheDir, folder.getRoot().toPath().resolve("a")));
+        assertFalse(vm(helper), vm(helper).contains("Helper.unused"));
+        assertEquals(11, new VMInterpreter(vm(main), vm(helper)).call("Main.main", 5));
+        var cached = cacheDir.list().length;
+        assertEquals(2, cached);
+
+        // unchanged sources come from the cache, other options are other entries
+        Files.delete(Path.of(App.outputFileName(main.toString())));
+        assertTrue(run(options, cacheDir, folder.getRoot().toPath().resolve("a")));
+        assertEquals(cached, cacheDir.list().length);
+        assertTrue(Files.exists(Path.of(App.outputFileName(main.toString()))));
+
+        assertTrue(run(new App.Options(), cacheDir, folder.getRoot().toPath().resolve("a")));
+        assertEquals(cached + 2, cacheDir.list().length);
+        assertTrue(vm(helper).contains("Helper.unused"));
+    }
+
+    // a bad root in a manifest fails alone
+    @Test
+    public void testMissingRoot () throws IOException {
+        var main = write("a/Main.jack", MAIN);
+        var helper = write("a/Helper.jack", HELPER);
+        var compiler = new BatchCompiler(new App.Options(), null);
+        try {
+            var missing = folder.getRoot().toPath().resolve("missing");
+            assertFalse(compiler.run(List.of(missing, folder.getRoot().toPath().resolve("a"))));
+        } finally {
+            compiler.shutdown();
+        }
+        assertEquals(11, new VMInterpreter(vm(main), vm(helper)).call("Main.main", 5));
+    }
+}
@@ -0,0 +1,126 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BuildCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testKeyDependsOnSourceAndSalt() {
+        var source = "class Main {}".getBytes(StandardCharsets.UTF_8);
+        var cache = new BuildCache(tmp.getRoot().toPath());
+
+        assertEquals(cache.key(source), cache.key(source.clone()));
+        assertNotEquals(cache.key(source), cache.key("class Other {}".getBytes(StandardCharsets.UTF_8)));
+        assertNotEquals(cache.key(source), new BuildCache(tmp.getRoot().toPath(), "opt").key(source));
+    }
+
+    @Test
+    public void testVersionComesFromTheBuild() {
+        assertTrue(BuildCache.COMPILER_VERSION, BuildCache.COMPILER_VERSION.matches("jackcompiler-[0-9a-f]{16}"));
+    }
+
+    // every option that changes the output changes the salt
+    @Test
+    public void testSalt() {
+        var plain = new App.Options();
+        var salts = new HashSet<String>();
+        salts.add(App.cacheSalt(plain, null));
+
+        var fold = new App.Options();
+        fold.optimizations = EnumSet.of(Parser.Optimization.FOLD);
+        salts.add(App.cacheSalt(fold, null));
+
+        // a class of a program is compiled against the other classes
+        salts.add(App.cacheSalt(plain, "a"));
+        salts.add(App.cacheSalt(plain, "b"));
+        salts.add(App.cacheSalt(fold, "a"));
+
+        assertEquals(5, salts.size());
+        assertEquals(App.cacheSalt(plain, null), App.cacheSalt(new App.Options(), null));
+        // --ast and --pipeline give the same code
+        var ast = new App.Options();
+        ast.ast = true;
+        ast.pipeline = true;
+        assertEquals(App.cacheSalt(plain, "a"), App.cacheSalt(ast, "a"));
+    }
+
+    private static final String MAIN = """
+        class Main {
+            function void main () { do Main.show(Main.twice(3)); return; }
+            function int twice (int a) { return a + a; }
+            function void show (int a) { do Output.printInt(a); return; }
+            function void unused () { return; }
+        }
+        """;
+
+    // a rebuild where every class is cached reads nothing of the whole program
+    @Test
+    public void testUpToDateProgram() throws IOException {
+        var dir = tmp.newFolder("program");
+        var main = dir.toPath().resolve("Main.jack");
+        var other = dir.toPath().resolve("Other.jack");
+        Files.writeString(main, MAIN);
+        Files.writeString(other, "class Other { function int f () { return Main.twice(2); } }");
+        var files = App.jackFiles(dir);
+        var cacheDir = tmp.newFolder("cache");
+
+        var first = new App.Options();
+        first.optimizations = EnumSet.allOf(Parser.Optimization.class);
+        App.prepare(first, files, true, cacheDir);
+        assertTrue(first.index != null && first.inliner != null && first.live != null);
+        assertTrue(App.compileAll(files, first));
+        var built = Files.readString(Path.of(App.outputFileName(main.toString())));
+        assertFalse(built, built.contains("Main.unused"));
+
+        var again = new App.Options();
+        again.optimizations = first.optimizations;
+        App.prepare(again, files, true, cacheDir);
+        assertTrue(again.index == null && again.inliner == null && again.live == null);
+        assertTrue(App.compileAll(files, again));
+        assertEquals(built, Files.readString(Path.of(App.outputFileName(main.toString()))));
+
+        // a change to one class is a new program, the others are compiled against it again
+        Files.writeString(other, "class Other { function int f () { return 4; } }");
+        var changed = new App.Options();
+        changed.optimizations = first.optimizations;
+        App.prepare(changed, files, true, cacheDir);
+        assertTrue(changed.index != null && changed.inliner != null && changed.live != null);
+        assertFalse(changed.cache.containsAll(List.of(main)));
+    }
+
+    @Test
+    public void testRestore() throws IOException {
+        var cache = new BuildCache(tmp.newFolder("cache").toPath());
+        var output = tmp.getRoot().toPath().resolve("Main.vm");
+        var key = cache.key("class Main {}".getBytes(StandardCharsets.UTF_8));
+
+        assertFalse(cache.restore(key, output));
+
+        cache.store(key, "function Main.main 0\n");
+        assertTrue(cache.restore(key, output));
+        assertEquals("function Main.main 0\n", Files.readString(output));
+
+        // a stale output is replaced by the cached one
+        Files.writeString(output, "garbage");
+        assertTrue(cache.restore(key, output));
+        assertEquals("function Main.main 0\n", Files.readString(output));
+    }
+}
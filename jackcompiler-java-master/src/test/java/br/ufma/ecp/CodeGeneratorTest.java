@@ -0,0 +1,288 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import br.ufma.ecp.Parser.Optimization;
+
+public class CodeGeneratorTest {
+
+    private static String compile(String source, Set<Optimization> optimizations) {
+        var parser = new Parser(source.getBytes(StandardCharsets.UTF_8), Parser.Output.VM);
+        parser.optimize(optimizations);
+        parser.parse();
+        return parser.VMOutput();
+    }
+
+    private static String expression(String expr, Set<Optimization> optimizations) {
+        var parser = new Parser(expr.getBytes(StandardCharsets.UTF_8), Parser.Output.VM);
+        parser.optimize(optimizations);
+        parser.parseExpression();
+        return parser.VMOutput();
+    }
+
+    private static final Set<Optimization> FOLD = EnumSet.of(Optimization.FOLD);
+
+    // a function of a and b whose body returns expr
+    private static String function(String expr) {
+        return """
+            class Main {
+                function int id (int x) { return x; }
+                function int f (int a, int b) {
+                    var int c;
+                    let c = a - b;
+                    return %s;
+                }
+            }
+            """.formatted(expr);
+    }
+
+    @Test
+    public void testFoldConstants () {
+        assertEquals("push constant 6\n", expression("2 * 3", FOLD));
+        assertEquals("push constant 14\n", expression("(2 + 5) * (8 / 4)", FOLD));
+        assertEquals("push constant 0\nnot\n", expression("1 < 2", FOLD));
+        assertEquals("push constant 0\n", expression("~true", FOLD));
+        assertEquals("push constant 3\nneg\n", expression("2 - 5", FOLD));
+        // 32767 + 1 wraps around as it does on the Hack platform
+        assertEquals("push constant 32767\nnot\n", expression("32767 + 1", FOLD));
+        // division by zero is left for run time
+        assertEquals("push constant 1\npush constant 0\ncall Math.divide 2\n", expression("1 / 0", FOLD));
+    }
+
+    @Test
+    public void testStrengthReduction () {
+        var vm = compile(function("a * 2"), FOLD);
+        assertTrue(vm, vm.contains("push argument 0\npush argument 0\nadd\nreturn"));
+
+        vm = compile(function("Main.id(a) * 4"), FOLD);
+        assertTrue(vm, vm.contains("call Main.id 1\npop temp 0\npush temp 0\npush temp 0\nadd\n"
+                + "pop temp 0\npush temp 0\npush temp 0\nadd\nreturn"));
+        assertTrue(vm, !vm.contains("Math.multiply"));
+    }
+
+    @Test
+    public void testIdentities () {
+        for (String expr : new String[] { "a + 0", "0 + a", "a * 1", "1 * a", "a - 0", "a / 1", "-(-a)", "~(~a)", "(a | 0) & ~0" }) {
+            var vm = compile(function(expr), FOLD);
+            assertTrue(expr + ":\n" + vm, vm.contains("pop local 0\npush argument 0\nreturn"));
+        }
+    }
+
+    @Test
+    public void testOffByDefault () {
+        assertEquals("push constant 2\npush constant 3\ncall Math.multiply 2\n", expression("2 * 3", EnumSet.noneOf(Optimization.class)));
+    }
+
+    // random expressions must compute the same with and without folding
+    @Test
+    public void testSameResults () {
+        var random = new Random(42);
+        var inputs = new int[] { 0, 1, -1, 2, 7, -13, 100, 32767, -32768 };
+        for (int n = 0; n < 300; n++) {
+            var expr = randomExpression(random, 4);
+            var plain = new VMInterpreter(compile(function(expr), EnumSet.noneOf(Optimization.class)));
+            var folded = new VMInterpreter(compile(function(expr), FOLD));
+            for (int a : inputs) {
+                for (int b : new int[] { 3, -5, 0 }) {
+                    assertEquals(expr + " with a=" + a + ", b=" + b, plain.call("Main.f", a, b), folded.call("Main.f", a, b));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testInternStrings () {
+        var source = """
+            class Main {
+                static int count;
+                function void main () {
+                    while (count < 3) {
+                        do Output.printString("hello, world");
+                        let count = count + 1;
+                    }
+                    do Output.printString("bye");
+                    do Output.printString("hello, world");
+                    return;
+                }
+            }
+            """;
+        var plain = compile(source, EnumSet.noneOf(Optimization.class));
+        var interned = compile(source, EnumSet.of(Optimization.STRINGS));
+        // the literal of the loop gets static 1, after count, and is built once
+        assertTrue(interned, interned.contains("function Main.strings:init 0\npush constant 12\ncall String.new 1\n"));
+        assertTrue(interned, interned.contains("pop static 1\n"));
+        assertEquals(1, interned.split("push constant 104\n", -1).length - 1);
+        // used once, outside any loop, "bye" is built in place
+        assertTrue(interned, interned.contains("push constant 3\ncall String.new 1\n"));
+        assertFalse(interned, interned.contains("pop static 2\n"));
+        assertTrue(interned.length() < plain.length());
+
+        var before = new VMInterpreter(plain);
+        var after = new VMInterpreter(interned);
+        before.call("Main.main");
+        after.call("Main.main");
+        assertEquals("hello, worldhello, worldhello, worldbyehello, world", before.output());
+        assertEquals(before.output(), after.output());
+        assertTrue(after.steps() < before.steps());
+    }
+
+    // past its share of the statics a class builds its literals in place
+    @Test
+    public void testInternedStringsBudget () {
+        var loop = new StringBuilder();
+        for (int i = 0; i < 12; i++) {
+            loop.append("do Output.printString(\"s").append(i).append("\");\n");
+        }
+        var source = "class Main { function void main () { var int i; while (i < 2) {\n" + loop
+                + "let i = i + 1; } return; } }";
+        var vm = compile(source, EnumSet.of(Optimization.STRINGS));
+        assertTrue(vm, vm.contains("pop static " + (CodeGenerator.MAX_INTERNED_STRINGS - 1) + "\n"));
+        assertFalse(vm, vm.contains("pop static " + CodeGenerator.MAX_INTERNED_STRINGS + "\n"));
+
+        var parser = new Parser(source.getBytes(StandardCharsets.UTF_8), Parser.Output.VM)
+                .optimize(EnumSet.of(Optimization.STRINGS));
+        var classes = new java.util.HashMap<String, SignatureIndex.ClassInfo>();
+        for (int i = 0; i < 60; i++) {
+            classes.put("C" + i, new SignatureIndex.ClassInfo("C" + i, 0, 1, java.util.Map.of()));
+        }
+        // (240 - 60 declared) / 60 classes
+        parser.index(new SignatureIndex(classes));
+        parser.parse();
+        vm = parser.VMOutput();
+        assertTrue(vm, vm.contains("pop static 2\n"));
+        assertFalse(vm, vm.contains("pop static 3\n"));
+
+        var before = new VMInterpreter(compile(source, EnumSet.noneOf(Optimization.class)));
+        var after = new VMInterpreter(vm);
+        before.call("Main.main");
+        after.call("Main.main");
+        assertEquals(before.output(), after.output());
+    }
+
+    @Test
+    public void testIntrinsics () {
+        var source = """
+            class Main {
+                function void main () {
+                    var int i, sum;
+                    while (i < 8) {
+                        do Memory.poke(1000 + i, (i * 3) - 10);
+                        let i = i + 1;
+                    }
+                    let i = 0;
+                    while (i < 8) {
+                        let sum = sum + Math.abs(Memory.peek(1000 + i));
+                        let sum = sum + Math.min(Memory.peek(1000 + i), i) + Math.max(i, -i);
+                        let i = i + 1;
+                    }
+                    do Output.printInt(sum);
+                    do Output.printInt(Math.max(7, 7) + Math.min(-2, 5) + Math.abs(0));
+                    return;
+                }
+            }
+            """;
+        var plain = compile(source, EnumSet.noneOf(Optimization.class));
+        var inline = compile(source, EnumSet.of(Optimization.INTRINSICS));
+        assertFalse(inline, inline.contains("call Memory."));
+        assertFalse(inline, inline.contains("call Math.abs"));
+        assertTrue(inline, inline.contains("pop pointer 1\npush that 0\n"));
+
+        var before = new VMInterpreter(plain);
+        var after = new VMInterpreter(inline);
+        before.call("Main.main");
+        after.call("Main.main");
+        assertEquals(before.output(), after.output());
+        assertTrue(after.steps() < before.steps());
+
+        var all = new VMInterpreter(compile(source, EnumSet.allOf(Optimization.class)));
+        all.call("Main.main");
+        assertEquals(before.output(), all.output());
+    }
+
+    @Test
+    public void testArrays () throws IOException {
+        // the stores used to be missing, the program checks its own results
+        var program = Files.readString(Path.of("src/main/java/br/ufma/ecp/11/ComplexArrays/Main.jack"));
+        var complex = new VMInterpreter(compile(program, EnumSet.noneOf(Optimization.class)));
+        complex.call("Main.main");
+        for (String line : complex.output().split("\n")) {
+            var results = line.replaceAll(".*expected result: (\\d+); actual result: (\\d+)", "$1 $2").split(" ");
+            assertEquals(line, results[0], results[1]);
+        }
+
+        var source = """
+            class Main {
+                function int at (Array b, int j) { return b[j]; }
+                function int main () {
+                    var Array a;
+                    var int i, s;
+                    let a = Array.new(10);
+                    while (i < 10) {
+                        let a[i] = i + i;
+                        let a[i] = a[i] + 1;
+                        let a[i + 1] = Main.at(a, i) * 3;
+                        let i = i + 1;
+                    }
+                    let i = 0;
+                    while (i < 10) {
+                        let s = s + (a[i] - (a[i] / 2));
+                        let i = i + 1;
+                    }
+                    let a[0] = a[1];
+                    return s + a[0];
+                }
+            }
+            """;
+        var plain = compile(source, EnumSet.noneOf(Optimization.class));
+        var arrays = compile(source, EnumSet.of(Optimization.ARRAYS));
+        // a[i] is read again through pointer 1, and only a[0] = a[1] needs temp 0
+        assertTrue(arrays, arrays.contains("pop pointer 1\npush that 0\npush constant 1\nadd\npop that 0\n"));
+        assertTrue(arrays, arrays.contains("pop pointer 1\npush that 0\npush that 0\npush constant 2\n"));
+        assertEquals(arrays, 1, arrays.split("pop temp 0\n", -1).length - 1);
+
+        var before = new VMInterpreter(plain);
+        var after = new VMInterpreter(arrays);
+        var all = new VMInterpreter(compile(source, EnumSet.allOf(Optimization.class)));
+        assertEquals(before.call("Main.main"), after.call("Main.main"));
+        assertEquals(before.call("Main.main"), all.call("Main.main"));
+        assertTrue(after.steps() < before.steps());
+    }
+
+    private static String randomExpression(Random random, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            switch (random.nextInt(7)) {
+                case 0: return "a";
+                case 1: return "b";
+                case 2: return "c";
+                case 3: return "true";
+                case 4: return "Main.id(" + random.nextInt(9) + ")";
+                default: return String.valueOf(new int[] { 0, 1, 2, 4, 3, 8, 32767 }[random.nextInt(7)]);
+            }
+        }
+        switch (random.nextInt(5)) {
+            case 0: return "-" + randomExpression(random, depth - 1);
+            case 1: return "~" + randomExpression(random, depth - 1);
+            case 2: return "(" + randomExpression(random, depth - 1) + ")";
+            default:
+                var op = "+-*/&|<>=".charAt(random.nextInt(9));
+                var right = randomExpression(random, depth - 1);
+                if (op == '/') {
+                    // keep the divisor away from zero
+                    right = "(" + right + " | 1)";
+                }
+                return "(" + randomExpression(random, depth - 1) + " " + op + " " + right + ")";
+        }
+    }
+}
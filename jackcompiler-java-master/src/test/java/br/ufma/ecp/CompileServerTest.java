@@ -0,0 +1,134 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompileServerTest {
+
+    private static final byte[] MAIN = "class Main { function int one () { return 1; } }".getBytes(StandardCharsets.UTF_8);
+
+    private CompileServer server;
+    private Thread thread;
+
+    @Before
+    public void start() throws IOException {
+        server = new CompileServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        thread = new Thread(() -> {
+            try {
+                server.run();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+    }
+
+    @After
+    public void stop() throws Exception {
+        server.close();
+        thread.join();
+    }
+
+    @Test(timeout = 10_000)
+    public void testRoundTrip () throws IOException {
+        try (var client = new CompileServer.Client(server.address())) {
+            var response = client.compile(MAIN);
+            assertTrue(response.text(), response.ok());
+            assertEquals("function Main.one 0\npush constant 1\nreturn\n", response.text());
+
+            // the connection takes more requests, errors included
+            response = client.compile("class Main { function }".getBytes(StandardCharsets.UTF_8));
+            assertFalse(response.ok());
+            assertTrue(response.text(), response.text().contains("[line 1]"));
+            assertTrue(client.compile(MAIN).ok());
+
+            // the parser is reused, nothing of the previous class is left in it
+            var other = "class Other { field int a; method int get () { if (a) { return 2; } return 3; } }";
+            response = client.compile(other.getBytes(StandardCharsets.UTF_8));
+            assertTrue(response.text(), response.ok());
+            assertEquals(new CompileServer.Client.Response(true, vm(other)), response);
+            response = client.compile("class Main { function int one () { return a; } }".getBytes(StandardCharsets.UTF_8));
+            assertFalse(response.text(), response.ok());
+        }
+    }
+
+    private static String vm(String source) {
+        var parser = new Parser(source.getBytes(StandardCharsets.UTF_8), Parser.Output.VM);
+        parser.parse();
+        return parser.VMOutput();
+    }
+
+    // a stack overflow is an error frame, not a dropped connection
+    @Test(timeout = 10_000)
+    public void testTooDeep () throws IOException {
+        var source = "class Main { function int f () { return " + "(".repeat(100_000) + "1" + ")".repeat(100_000) + "; } }";
+        try (var client = new CompileServer.Client(server.address())) {
+            var response = client.compile(source.getBytes(StandardCharsets.UTF_8));
+            assertFalse(response.ok());
+            assertEquals("too deeply nested", response.text());
+            assertTrue(client.compile(MAIN).ok());
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void testTooLarge () throws IOException {
+        try (var channel = SocketChannel.open(server.address())) {
+            var out = new DataOutputStream(Channels.newOutputStream(channel));
+            var in = new DataInputStream(Channels.newInputStream(channel));
+            // only the length is sent, the server must not wait for (or allocate) the rest
+            out.writeInt(CompileServer.MAX_REQUEST + 1);
+            out.flush();
+            assertEquals(CompileServer.STATUS_ERROR, in.readByte());
+            var text = new byte[in.readInt()];
+            in.readFully(text);
+            assertEquals("request too large: " + (CompileServer.MAX_REQUEST + 1), new String(text, StandardCharsets.UTF_8));
+            // and closes the connection
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void testClientGoesAway () throws IOException {
+        try (var channel = SocketChannel.open(server.address())) {
+            var out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeInt(MAIN.length);
+            out.write(MAIN, 0, MAIN.length / 2);
+            out.flush();
+        }
+        // the server is still there for the next one
+        try (var client = new CompileServer.Client(server.address())) {
+            assertTrue(client.compile(MAIN).ok());
+        }
+    }
+
+    // a long-running server must not keep every name it was ever sent
+    @Test
+    public void testNamesBounded () {
+        var pool = new NamePool(64);
+        var first = pool.intern("first");
+        for (int i = 0; i < 1000; i++) {
+            pool.intern("name" + i);
+        }
+        assertTrue(pool.size() <= 64);
+        assertSame(first, pool.intern("first"));
+        var late = pool.intern("late");
+        assertEquals("late", late);
+        assertNotSame(late, pool.intern("late"));
+    }
+}
@@ -0,0 +1,95 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+import br.ufma.ecp.token.TokenType;
+
+public class CompileStatsTest extends TestSupport {
+
+    @Test
+    public void testCounts () throws IOException {
+        var input = fromFile("Square/SquareGame.jack").getBytes(StandardCharsets.UTF_8);
+
+        var stats = new CompileStats();
+        var out = new ByteArrayOutputStream();
+        new Parser(ByteBuffer.wrap(input), Channels.newChannel(out), stats).parse();
+        var vm = out.toString(StandardCharsets.US_ASCII);
+
+        // the timed parser generates the same code
+        var parser = new Parser(input);
+        parser.parse();
+        assertEquals(parser.VMOutput(), vm);
+
+        var tokens = 0;
+        var scanner = new Scanner(input);
+        while (scanner.nextToken().type != TokenType.EOF) {
+            tokens++;
+        }
+        // the parser reads the EOF token too
+        assertEquals(tokens + 1, stats.tokens);
+
+        var lines = vm.split("\n");
+        assertEquals(lines.length, stats.instructionCount());
+        var calls = Arrays.stream(lines).filter(l -> l.startsWith("call ")).count();
+        assertEquals(calls, stats.instructions[Arrays.asList(CompileStats.INSTRUCTIONS).indexOf("call")]);
+        var pushThis = Arrays.stream(lines).filter(l -> l.startsWith("push this ")).count();
+        assertEquals(pushThis, stats.instructions[Arrays.asList(CompileStats.INSTRUCTIONS).indexOf("push this")]);
+
+        assertTrue(stats.scanNanos > 0);
+        assertTrue(stats.codegenNanos > 0);
+    }
+
+    // the passes over the Ast and Ast.emit run after the class is read, and are codegen too
+    @Test
+    public void testAstIsCodegen () throws IOException {
+        var input = fromFile("Square/SquareGame.jack").getBytes(StandardCharsets.UTF_8);
+        var optimizations = EnumSet.allOf(Parser.Optimization.class);
+
+        var stats = new CompileStats();
+        var out = new ByteArrayOutputStream();
+        var start = System.nanoTime();
+        var timed = new Parser(ByteBuffer.wrap(input), Channels.newChannel(out), stats).optimize(optimizations);
+        timed.parse();
+        var elapsed = System.nanoTime() - start;
+
+        var parser = new Parser(input, Parser.Output.VM).optimize(optimizations);
+        parser.parse();
+        assertEquals(parser.VMOutput(), out.toString(StandardCharsets.US_ASCII));
+
+        assertTrue(stats.codegenNanos > 0);
+        assertTrue(stats.scanNanos + stats.symbolNanos + stats.codegenNanos + stats.ioNanos <= elapsed);
+        assertTrue(timed.ast() != null);
+    }
+
+    @Test
+    public void testAdd () {
+        var a = new CompileStats();
+        a.files = 1;
+        a.tokens = 10;
+        a.instructions[0] = 3;
+        var b = new CompileStats();
+        b.files = 1;
+        b.tokens = 5;
+        b.instructions[0] = 2;
+        b.allocatedBytes = -1;
+
+        var total = new CompileStats();
+        total.add(a);
+        total.add(b);
+        assertEquals(2, total.files);
+        assertEquals(15, total.tokens);
+        assertEquals(5, total.instructionCount());
+        assertEquals(-1, total.allocatedBytes);
+    }
+}
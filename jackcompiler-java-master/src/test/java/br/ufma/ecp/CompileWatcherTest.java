@@ -0,0 +1,87 @@
+package br.ufma.ecp;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompileWatcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private record Event<T>(WatchEvent.Kind<T> kind, T context) implements WatchEvent<T> {
+        @Override
+        public int count() {
+            return 1;
+        }
+    }
+
+    private Path write(String name, String source) throws IOException {
+        var file = folder.getRoot().toPath().resolve(name);
+        Files.writeString(file, source);
+        return file;
+    }
+
+    @Test
+    public void testEvents () throws IOException {
+        var a = write("A.jack", "class A {}");
+        write("B.jack", "class B {}");
+        write("notes.txt", "");
+        var watcher = CompileWatcher.of(folder.getRoot(), new App.Options());
+
+        List<WatchEvent<?>> events = List.of(new Event<>(ENTRY_MODIFY, Path.of("A.jack")),
+                new Event<>(ENTRY_MODIFY, Path.of("A.jack")), new Event<>(ENTRY_MODIFY, Path.of("notes.txt")));
+        assertEquals(Set.of(a), watcher.changed(events));
+    }
+
+    // the names of the dropped events are lost, so every class is recompiled
+    @Test
+    public void testOverflow () throws IOException {
+        var a = write("A.jack", "class A {}");
+        var b = write("B.jack", "class B {}");
+        write("notes.txt", "");
+
+        List<WatchEvent<?>> events = List.of(new Event<>(ENTRY_MODIFY, Path.of("A.jack")), new Event<>(OVERFLOW, null));
+        assertEquals(Set.of(a, b), CompileWatcher.of(folder.getRoot(), new App.Options()).changed(events));
+        // watching one file still only compiles that one
+        assertEquals(Set.of(b), CompileWatcher.of(b.toFile(), new App.Options()).changed(events));
+    }
+
+    private static boolean compiled(Path output) throws IOException {
+        return Files.exists(output) && Files.readString(output).startsWith("function Main.one 0\npush constant 1\nreturn");
+    }
+
+    @Test(timeout = 30_000)
+    public void testRecompiles () throws Exception {
+        var thread = new Thread(() -> {
+            try {
+                CompileWatcher.of(folder.getRoot(), new App.Options()).run();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        try {
+            var output = folder.getRoot().toPath().resolve("Main.vm");
+            // the watch may not be registered yet, so keep saving until it is seen
+            while (!compiled(output)) {
+                write("Main.jack", "class Main { function int one () { return 1; } }");
+                Thread.sleep(200);
+            }
+        } finally {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.ufma.ecp.Parser.Optimization;
+
+public class DeadCodeTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final Set<Optimization> DCE = EnumSet.of(Optimization.DCE);
+
+    private static final String PROGRAM = """
+        class Main {
+            function int branches (int a) {
+                if (false) { let a = a + 100; }
+                if (true) { let a = a + 1; } else { let a = a - 1; }
+                if (~(1 = 2)) { let a = a * 3; }
+                while (false) { let a = 0; }
+                while (1) { let a = 0; }
+                return a;
+                let a = 7;
+            }
+            function int forever (int a) {
+                while (true) {
+                    if (a > 10) {
+                        return a;
+                    } else {
+                        let a = a + 3;
+                    }
+                }
+                return 0;
+            }
+            function int both (int a) {
+                if (a < 0) {
+                    return -a;
+                } else {
+                    return a;
+                }
+                let a = 1;
+                return a;
+            }
+        }
+        """;
+
+    private static String compile(String source, Set<Optimization> optimizations) {
+        var parser = new Parser(source.getBytes(StandardCharsets.UTF_8), Parser.Output.VM).optimize(optimizations);
+        parser.parse();
+        return parser.VMOutput();
+    }
+
+    @Test
+    public void testPrune () {
+        var vm = compile(PROGRAM, DCE);
+        // no branch is left in branches, nor the code after its return
+        var branches = vm.substring(0, vm.indexOf("function Main.forever"));
+        assertFalse(branches, branches.contains("goto"));
+        assertFalse(branches, branches.contains("label"));
+        assertFalse(branches, branches.contains("push constant 100"));
+        assertFalse(branches, branches.contains("push constant 7"));
+        assertTrue(branches, branches.contains("push constant 3\ncall Math.multiply 2\n"));
+        // while (true) has no exit test and no exit label
+        var forever = vm.substring(vm.indexOf("function Main.forever"), vm.indexOf("function Main.both"));
+        assertFalse(forever, forever.contains("WHILE_END"));
+        assertTrue(forever, forever.endsWith("goto WHILE_EXP0\n"));
+        var both = vm.substring(vm.indexOf("function Main.both"));
+        assertFalse(both, both.contains("push constant 1\n"));
+    }
+
+    @Test
+    public void testSameResults () {
+        for (Set<Optimization> optimizations : List.of(DCE, EnumSet.allOf(Optimization.class))) {
+            var plain = new VMInterpreter(compile(PROGRAM, EnumSet.noneOf(Optimization.class)));
+            var pruned = new VMInterpreter(compile(PROGRAM, optimizations));
+            for (String f : new String[] { "Main.branches", "Main.forever", "Main.both" }) {
+                for (int a : new int[] { -5, 0, 1, 4, 11 }) {
+                    assertEquals(f + "(" + a + ")", plain.call(f, a), pruned.call(f, a));
+                }
+            }
+            assertTrue(pruned.steps() < plain.steps());
+        }
+    }
+
+    private File write(String name, String source) throws IOException {
+        var file = folder.newFile(name);
+        Files.writeString(file.toPath(), source);
+        return file;
+    }
+
+    @Test
+    public void testUnusedSubroutines () throws IOException {
+        var main = write("Main.jack", """
+            class Main {
+                function void main () {
+                    var Util u;
+                    let u = Util.new();
+                    do u.used();
+                    if (false) { do Util.onlyFromDeadCode(); }
+                    return;
+                }
+                function void neverCalled () { return; }
+            }
+            """);
+        var util = write("Util.jack", """
+            class Util {
+                constructor Util new () { return this; }
+                method void used () { do helper(); return; }
+                method void helper () { return; }
+                function void onlyFromDeadCode () { return; }
+                function void unused () { do Main.neverCalled(); return; }
+            }
+            """);
+        var live = DeadCode.live(List.of(main, util), null, System.err);
+        assertEquals(Set.of("Main.main", "Util.new", "Util.used", "Util.helper"), live);
+
+        var parser = new Parser(Files.readAllBytes(util.toPath()), Parser.Output.VM).optimize(DCE).keep(live);
+        parser.parse();
+        var vm = parser.VMOutput();
+        assertTrue(vm, vm.contains("function Util.helper 0"));
+        assertFalse(vm, vm.contains("function Util.unused"));
+        assertFalse(vm, vm.contains("function Util.onlyFromDeadCode"));
+
+        // a set of classes without Main.main is not a program, nothing is dropped
+        var warnings = new ByteArrayOutputStream();
+        assertNull(DeadCode.live(List.of(util), null, new PrintStream(warnings)));
+        assertEquals("", warnings.toString());
+
+        // one that does not parse turns DCE off for the program, and says so
+        var broken = write("Broken.jack", "class Broken { function void f ( }");
+        assertNull(DeadCode.live(List.of(main, util, broken), null, new PrintStream(warnings)));
+        assertTrue(warnings.toString(), warnings.toString().startsWith("warning: " + broken + ": [line 1]"));
+        assertTrue(warnings.toString(), warnings.toString().contains("DCE keeps every subroutine"));
+    }
+}
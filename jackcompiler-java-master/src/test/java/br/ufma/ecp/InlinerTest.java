@@ -0,0 +1,143 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.ufma.ecp.Parser.Optimization;
+
+public class InlinerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String POINT = """
+        class Point {
+            field int x, y;
+            constructor Point new (int ax, int ay) {
+                let x = ax;
+                let y = ay;
+                return this;
+            }
+            method int getX () { return x; }
+            method int getY () { return y; }
+            method int sum () { return x + y; }
+            method int scaled (int k) { return x * k; }
+            method Point self () { return this; }
+            method int far () { return ((x + y) * (x - y)) + ((x * y) - (y + x)); }
+            method int total () { return getX() + sum(); }
+        }
+        """;
+
+    private static final String MAIN = """
+        class Main {
+            static int counter;
+            function int twice (int a) { return a + a; }
+            function int at (Array a, int i) { return a[i]; }
+            function int next () { let counter = counter + 1; return counter; }
+            function int count () { return counter; }
+            function int run (int n) {
+                var Point p, q;
+                var Array arr;
+                var int s;
+                let p = Point.new(n, 3);
+                let q = p.self();
+                let arr = Array.new(4);
+                do Memory.poke(arr + 2, 40);
+                let s = p.getX() + q.getY() + p.sum() + p.scaled(n + 1);
+                let s = s + Main.twice(p.getY()) + Main.twice(n) + Main.count();
+                let s = s + Main.twice(Main.next()) + p.far() + p.total();
+                let s = s + Main.at(arr, 2) + Main.at(arr + 0, 2);
+                do p.getX();
+                return s;
+            }
+        }
+        """;
+
+    private File write(String name, String source) throws IOException {
+        var file = folder.newFile(name);
+        Files.writeString(file.toPath(), source);
+        return file;
+    }
+
+    private static String compile(File file, Set<Optimization> optimizations, Inliner inliner) throws IOException {
+        var parser = new Parser(Files.readAllBytes(file.toPath()), Parser.Output.VM).optimize(optimizations);
+        if (inliner != null) {
+            parser.inline(inliner);
+        }
+        parser.parse();
+        return parser.VMOutput();
+    }
+
+    @Test
+    public void testSameResult () throws IOException {
+        var files = List.of(write("Point.jack", POINT), write("Main.jack", MAIN));
+        var inliner = Inliner.build(files, 2);
+        var inline = EnumSet.of(Optimization.INLINE);
+        var plain = new ArrayList<String>();
+        var inlined = new ArrayList<String>();
+        for (File f : files) {
+            plain.add(compile(f, Set.of(), null));
+            inlined.add(compile(f, inline, inliner));
+        }
+        var before = new VMInterpreter(plain.toArray(new String[0]));
+        var after = new VMInterpreter(inlined.toArray(new String[0]));
+        for (int n = -3; n < 5; n++) {
+            assertEquals(before.call("Main.run", n), after.call("Main.run", n));
+        }
+        assertTrue(after.steps() < before.steps());
+
+        var main = inlined.get(1);
+        assertFalse(main, main.contains("call Point.scaled"));
+        assertFalse(main, main.contains("call Point.self"));
+        // its value is thrown away, the call stays
+        assertEquals(main.indexOf("call Point.getX"), main.lastIndexOf("call Point.getX 1\npop temp 0"));
+        assertTrue(main, main.contains("call Main.twice 1"));
+        assertTrue(main, main.contains("call Point.far 1"));
+    }
+
+    @Test
+    public void testDecisions () throws IOException {
+        var files = List.of(write("Point.jack", POINT), write("Main.jack", MAIN));
+        var inliner = Inliner.build(files, 1);
+        for (File f : files) {
+            compile(f, EnumSet.of(Optimization.INLINE), inliner);
+        }
+        var decisions = new ArrayList<String>();
+        for (Inliner.Decision d : inliner.decisions()) {
+            decisions.add(d.toString());
+        }
+        assertTrue(decisions.toString(), decisions.contains("Main.run -> Main.twice: kept, an argument has side effects"));
+        assertTrue(decisions.toString(), decisions.contains("Main.run -> Main.twice: kept, an argument would be computed twice"));
+        assertTrue(decisions.toString(), decisions.contains("Main.run -> Main.at: kept, indexes an argument that is not a variable"));
+        assertTrue(decisions.toString(), decisions.contains("Main.run -> Main.next: kept, more than a return"));
+        assertTrue(decisions.toString(), decisions.contains("Main.run -> Main.count: kept, uses statics of its class"));
+        assertTrue(decisions.toString(), decisions.contains("Main.run -> Point.new: kept, a constructor"));
+        assertTrue(decisions.toString(), decisions.contains("Main.run -> Point.far: kept, too big (15 nodes)"));
+        assertTrue(decisions.toString(), decisions.contains("Main.run -> Point.total: kept, calls Point.getX"));
+        // a field of this stays a field, one of another object is read through that
+        assertTrue(decisions.toString(), decisions.contains("Point.total -> Point.getX: inlined, ~108 cycles saved per call"));
+        assertTrue(decisions.toString(), decisions.contains("Main.run -> Point.getX: inlined, ~82 cycles saved per call"));
+        assertTrue(decisions.toString(), decisions.contains("Main.run -> Main.twice: inlined, ~95 cycles saved per call"));
+        assertTrue(decisions.toString(), decisions.contains("Main.run -> Main.at: inlined, ~95 cycles saved per call"));
+    }
+
+    // compiled alone, a class still inlines its own subroutines
+    @Test
+    public void testOneClass () throws IOException {
+        var vm = compile(write("Point.jack", POINT), EnumSet.of(Optimization.INLINE), null);
+        assertTrue(vm, vm.contains("function Point.total 0\npush argument 0\npop pointer 0\npush this 0\npush this 0\npush this 1\nadd\nadd\nreturn"));
+    }
+}
@@ -5,6 +5,7 @@ import java.nio.charset.StandardCharsets;
 import static org.junit.Assert.assertEquals;
 
 import java.io.IOException;
+import java.io.StringWriter;
 
 import org.junit.Test;
 
@@ -421,4 +422,32 @@ public class ParserTest extends TestSupport {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testOutputModes() throws IOException {
+        var input = fromFile("Square/Square.jack").getBytes(StandardCharsets.UTF_8);
+
+        var both = new Parser(input);
+        both.parse();
+
+        var vmOnly = new Parser(input, Parser.Output.VM);
+        vmOnly.parse();
+        assertEquals(both.VMOutput(), vmOnly.VMOutput());
+
+        var xmlOnly = new Parser(input, Parser.Output.XML);
+        xmlOnly.parse();
+        assertEquals(both.XMLOutput(), xmlOnly.XMLOutput());
+
+        var xml = new StringWriter();
+        var streamed = new Parser(input, null, xml);
+        streamed.parse();
+        assertEquals(both.XMLOutput(), xml.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testXMLOutputOff() {
+        var parser = new Parser("class Main {}".getBytes(StandardCharsets.UTF_8), Parser.Output.VM);
+        parser.parse();
+        parser.XMLOutput();
+    }
+
+}
@@ -0,0 +1,202 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import br.ufma.ecp.Parser.Optimization;
+
+public class PeepholeTest {
+
+    private static final Set<Optimization> PEEPHOLE = EnumSet.of(Optimization.PEEPHOLE);
+
+    private static final String PROGRAM = """
+        class Main {
+            function int sum (int n) {
+                var int i, s;
+                let i = 0;
+                let s = 0;
+                while (i < n) {
+                    let s = s + i;
+                    let i = i + 1;
+                }
+                return s;
+            }
+            function int collatz (int n) {
+                var int steps;
+                while (~(n = 1)) {
+                    if ((n & 1) = 0) {
+                        let n = n / 2;
+                    } else {
+                        let n = (3 * n) + 1;
+                    }
+                    let steps = steps + 1;
+                }
+                return steps;
+            }
+            function int root (int n) {
+                var int i;
+                while (true) {
+                    if ((i * i) > n) {
+                        return i - 1;
+                    }
+                    let i = i + 1;
+                }
+                return -1;
+            }
+            function int pick (int a) {
+                var int b;
+                let b = a;
+                let b = b;
+                if (true) { let b = b + 1; } else { let b = b - 1; }
+                if (false) { let b = 0; }
+                if (~(a > 3)) { let b = b * 2; }
+                return b;
+            }
+            function int nested (int n) {
+                var int i, j, c;
+                while (i < n) {
+                    let j = 0;
+                    while (j < i) {
+                        let c = c + 1;
+                        let j = j + 1;
+                    }
+                    let i = i + 1;
+                }
+                return c;
+            }
+        }
+        """;
+
+    private static Parser parse(String source, Set<Optimization> optimizations) {
+        var parser = new Parser(source.getBytes(StandardCharsets.UTF_8), Parser.Output.VM).optimize(optimizations);
+        parser.parse();
+        return parser;
+    }
+
+    private static String compile(String source, Set<Optimization> optimizations) {
+        return parse(source, optimizations).VMOutput();
+    }
+
+    @Test
+    public void testPatterns () {
+        var vm = compile(PROGRAM, PEEPHOLE);
+        // let b = b
+        assertFalse(vm, vm.contains("push local 0\npop local 0\n"));
+        // if (true) and if (false) leave no branches behind
+        assertFalse(vm, vm.contains("IF_TRUE"));
+        assertFalse(vm, vm.contains("not\nnot\n"));
+        // while (i < n) tests at the bottom
+        assertTrue(vm, vm.contains("label WHILE_EXP0\npush local 0\npush argument 0\nlt\nif-goto WHILE_EXP0_BODY\n"));
+        // while (true) is a plain loop
+        assertTrue(vm, vm.contains("goto WHILE_EXP0\nfunction Main.pick"));
+    }
+
+    @Test
+    public void testOffByDefault () {
+        var vm = compile(PROGRAM, EnumSet.noneOf(Optimization.class));
+        assertTrue(vm.contains("if-goto IF_TRUE0\ngoto IF_FALSE0\nlabel IF_TRUE0\n"));
+        assertEquals(0, parse(PROGRAM, EnumSet.noneOf(Optimization.class)).peepholeRemoved());
+    }
+
+    @Test
+    public void testRemovedCount () {
+        var plain = compile(PROGRAM, EnumSet.noneOf(Optimization.class));
+        var parser = parse(PROGRAM, PEEPHOLE);
+        var optimized = parser.VMOutput();
+        assertTrue(parser.peepholeRemoved() > 0);
+        assertEquals(lines(plain) - parser.peepholeRemoved(), lines(optimized));
+    }
+
+    private static long lines(String vm) {
+        return vm.lines().count();
+    }
+
+    @Test
+    public void testSameResults () {
+        for (Set<Optimization> optimizations : Set.of(PEEPHOLE, EnumSet.allOf(Optimization.class))) {
+            var plain = new VMInterpreter(compile(PROGRAM, EnumSet.noneOf(Optimization.class)));
+            var optimized = new VMInterpreter(compile(PROGRAM, optimizations));
+            for (String f : new String[] { "Main.sum", "Main.collatz", "Main.root", "Main.pick", "Main.nested" }) {
+                for (int n : new int[] { 1, 2, 3, 7, 27, 100 }) {
+                    assertEquals(f + "(" + n + ")", plain.call(f, n), optimized.call(f, n));
+                }
+            }
+            assertTrue(optimized.steps() < plain.steps());
+        }
+    }
+
+    // if-goto jumps on any value but 0, not only on -1
+    @Test
+    public void testConditionsNotBoolean () {
+        var source = """
+            class Main {
+                function int bit (int x) {
+                    if (x & 1) {
+                        return 10;
+                    }
+                    return 20;
+                }
+                function int odd (int n) {
+                    var int c;
+                    while (n & 1) {
+                        let n = n / 2;
+                        let c = c + 1;
+                    }
+                    return c;
+                }
+                function int one () {
+                    var int i;
+                    while (1) {
+                        let i = i + 1;
+                        if (i > 5) {
+                            return 99;
+                        }
+                    }
+                    return 6;
+                }
+            }
+            """;
+        for (Set<Optimization> optimizations : Set.of(PEEPHOLE, EnumSet.allOf(Optimization.class))) {
+            var plain = new VMInterpreter(compile(source, EnumSet.noneOf(Optimization.class)));
+            var optimized = new VMInterpreter(compile(source, optimizations));
+            for (int n : new int[] { 0, 1, 2, 3, 7, 8 }) {
+                assertEquals("bit(" + n + ")", plain.call("Main.bit", n), optimized.call("Main.bit", n));
+                assertEquals("odd(" + n + ")", plain.call("Main.odd", n), optimized.call("Main.odd", n));
+            }
+            assertEquals(plain.call("Main.one"), optimized.call("Main.one"));
+        }
+        // rotating would keep the not and save nothing, so the loop stays as it is
+        var odd = source.substring(source.indexOf("function int odd"), source.indexOf("function int one"));
+        var wrapped = "class Main {\n" + odd + "}\n";
+        var parser = parse(wrapped, PEEPHOLE);
+        assertEquals(compile(wrapped, EnumSet.noneOf(Optimization.class)), parser.VMOutput());
+        assertEquals(0, parser.peepholeRemoved());
+        assertTrue(parse(source, PEEPHOLE).peepholeRemoved() >= 0);
+    }
+
+    // every jump left in the shipped programs still has its label
+    @Test
+    public void testLabels () throws IOException {
+        for (Path program : AstTest.programs()) {
+            var vm = compile(Files.readString(program), PEEPHOLE);
+            Set<String> labels = new HashSet<>();
+            for (String function : vm.split("(?=function )")) {
+                labels.clear();
+                function.lines().filter(l -> l.startsWith("label ")).forEach(l -> labels.add(l.substring(6)));
+                function.lines().filter(l -> l.startsWith("goto ") || l.startsWith("if-goto ")).forEach(l ->
+                        assertTrue(program + ": " + l, labels.contains(l.substring(l.indexOf(' ') + 1))));
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class PipelineTest extends TestSupport {
+
+    private static String pipelined(byte[] input) throws IOException {
+        var out = new ByteArrayOutputStream();
+        Pipeline.compile(ByteBuffer.wrap(input), Channels.newChannel(out));
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+
+    private static String sequential(byte[] input) {
+        var parser = new Parser(input);
+        parser.parse();
+        return parser.VMOutput();
+    }
+
+    @Test
+    public void testSameOutput () throws IOException {
+        var input = fromFile("Square/SquareGame.jack").getBytes(StandardCharsets.UTF_8);
+        assertEquals(sequential(input), pipelined(input));
+
+        // the peephole pass stays on the parser thread, in front of the writer stage
+        var all = EnumSet.allOf(Parser.Optimization.class);
+        var parser = new Parser(input, Parser.Output.VM).optimize(all);
+        parser.parse();
+        var out = new ByteArrayOutputStream();
+        Pipeline.compile(ByteBuffer.wrap(input), Channels.newChannel(out), all);
+        assertEquals(parser.VMOutput(), out.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testLargeClass () throws IOException {
+        // many token batches and many output chunks
+        var source = new StringBuilder("class Big {\n");
+        for (int i = 0; i < 2000; i++) {
+            source.append("function int f").append(i).append("(int x) {\n")
+                  .append("var int y;\n")
+                  .append("let y = x * ").append(i).append(" + 1;\n")
+                  .append("while (y > 0) { let y = y - 1; }\n")
+                  .append("do Output.printString(\"f").append(i).append("\");\n")
+                  .append("return y;\n}\n");
+        }
+        source.append("}\n");
+        var input = source.toString().getBytes(StandardCharsets.UTF_8);
+        assertEquals(sequential(input), pipelined(input));
+    }
+
+    @Test
+    public void testErrors () throws IOException {
+        // a parse error on the parser thread
+        try {
+            pipelined("class Main { function void main() { let = 1; } }".getBytes(StandardCharsets.UTF_8));
+            fail("expected a parse error");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("Expected"));
+        }
+
+        // a scan error on the scanner thread reaches the caller
+        try {
+            pipelined("class Main { /* never closed".getBytes(StandardCharsets.UTF_8));
+            fail("expected a scan error");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    // the writer's error reaches the parser and close(), never a null
+    @Test
+    public void testWriterErrors () throws IOException {
+        var writer = new Pipeline.AsyncWriter(new WritableByteChannel() {
+            public int write(ByteBuffer src) throws IOException {
+                throw new IOException("disk full");
+            }
+            public boolean isOpen() {
+                return true;
+            }
+            public void close() {
+            }
+        });
+        try {
+            while (true) {
+                writer.writePush(VMWriter.Segment.CONST, 1);
+                writer.flush();
+            }
+        } catch (UncheckedIOException e) {
+            assertEquals("disk full", e.getCause().getMessage());
+        }
+        try {
+            writer.close();
+            fail("expected the writer's error");
+        } catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+        try {
+            writer.writeReturn();
+            fail("expected a closed writer");
+        } catch (UncheckedIOException e) {
+            assertEquals("disk full", e.getCause().getMessage());
+        }
+    }
+
+    // encoding runs on the writer thread
+    @Test
+    public void testWriterEncodes () throws IOException {
+        var threads = new HashSet<String>();
+        var out = new ByteArrayOutputStream();
+        var channel = Channels.newChannel(out);
+        try (var writer = new Pipeline.AsyncWriter(new WritableByteChannel() {
+            public int write(ByteBuffer src) throws IOException {
+                threads.add(Thread.currentThread().getName());
+                return channel.write(src);
+            }
+            public boolean isOpen() {
+                return true;
+            }
+            public void close() {
+            }
+        })) {
+            writer.writeFunction("Main.f", 0);
+            writer.writePush(VMWriter.Segment.CONST, 7);
+            writer.writeReturn();
+            writer.flush();
+        }
+        assertEquals("function Main.f 0\npush constant 7\nreturn\n", out.toString(StandardCharsets.US_ASCII));
+        assertEquals(Set.of("jack-writer"), threads);
+    }
+}
@@ -1,8 +1,11 @@
 package br.ufma.ecp;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 import org.junit.Test;
@@ -65,4 +68,113 @@ public class ScannerTest extends TestSupport {
 
     
     
+    @Test
+    public void testScanReportsOffsets () {
+        var input = "let x = \"ola\";\n  return 10;";
+        var scanner = new Scanner(input.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(TokenType.LET.ordinal(), scanner.scan());
+        assertEquals(0, scanner.tokenStart());
+        assertEquals(3, scanner.tokenLength());
+        assertEquals(TokenType.IDENT.ordinal(), scanner.scan());
+        assertEquals("x", scanner.lexeme());
+        assertEquals(TokenType.EQ.ordinal(), scanner.scan());
+        assertEquals(TokenType.STRING.ordinal(), scanner.scan());
+        assertEquals(9, scanner.tokenStart());
+        assertEquals("ola", scanner.lexeme());
+        assertEquals(TokenType.SEMICOLON.ordinal(), scanner.scan());
+        assertEquals(TokenType.RETURN.ordinal(), scanner.scan());
+        assertEquals(2, scanner.tokenLine());
+        assertEquals(TokenType.NUMBER.ordinal(), scanner.scan());
+        assertEquals("10", scanner.lexeme());
+        assertEquals(TokenType.SEMICOLON.ordinal(), scanner.scan());
+        assertEquals(TokenType.EOF.ordinal(), scanner.scan());
+    }
+
+    @Test
+    public void testScanMatchesNextToken () throws IOException {
+        var input = fromFile("Square/SquareGame.jack").getBytes(StandardCharsets.UTF_8);
+        var tokens = new Scanner(input);
+        var kinds = new Scanner(input);
+
+        Token tk;
+        do {
+            tk = tokens.nextToken();
+            assertEquals(tk.type.ordinal(), kinds.scan());
+            assertEquals(tk.lexeme, kinds.lexeme());
+            assertEquals(tk.line, kinds.tokenLine());
+        } while (tk.type != TokenType.EOF);
+    }
+
+    @Test
+    public void testKeywords () {
+        var input = "while int class constructor function method field static var char boolean void "
+                + "true false null this let do if else return";
+        var scanner = new Scanner(input.getBytes(StandardCharsets.UTF_8));
+        for (Token tk = scanner.nextToken(); tk.type != TokenType.EOF; tk = scanner.nextToken()) {
+            assertEquals(tk.lexeme, tk.type.name().toLowerCase());
+        }
+
+        // prefixes, extensions and other casings are identifiers
+        input = "d iff Class classes thiss tru new whilex returns constructors boolea";
+        scanner = new Scanner(input.getBytes(StandardCharsets.UTF_8));
+        for (Token tk = scanner.nextToken(); tk.type != TokenType.EOF; tk = scanner.nextToken()) {
+            assertEquals(tk.lexeme, TokenType.IDENT, tk.type);
+        }
+    }
+
+    @Test
+    public void testIdentifiersAreInterned () {
+        var scanner = new Scanner("count + count".getBytes(StandardCharsets.UTF_8));
+        var first = scanner.nextToken();
+        scanner.nextToken();
+        var second = scanner.nextToken();
+        assertEquals("count", first.lexeme);
+        assertSame(first.lexeme, second.lexeme);
+    }
+
+    @Test
+    public void testScanDirectBuffer () throws IOException {
+        var bytes = fromFile("Square/SquareGame.jack").getBytes(StandardCharsets.UTF_8);
+        // a direct buffer has no backing array, like a mapped file
+        var buffer = ByteBuffer.allocateDirect(bytes.length + 4);
+        buffer.put("xxxx".getBytes(StandardCharsets.UTF_8)).put(bytes).flip().position(4);
+
+        var tokens = new Scanner(bytes);
+        var direct = new Scanner(buffer);
+
+        Token tk;
+        do {
+            tk = tokens.nextToken();
+            Token other = direct.nextToken();
+            assertEquals(tk.type, other.type);
+            assertEquals(tk.lexeme, other.lexeme);
+            assertEquals(tk.line, other.line);
+        } while (tk.type != TokenType.EOF);
+    }
+
+    @Test
+    public void testScanChunkedStream () throws IOException {
+        var bytes = (fromFile("Square/SquareGame.jack")
+                + "/* a comment longer than every chunk " + "*".repeat(100) + " */\n"
+                + "do Output.printString(\"" + "a string longer than every chunk ".repeat(4) + "\");\n")
+                .getBytes(StandardCharsets.UTF_8);
+
+        // tokens, strings and comments cross chunk boundaries at every chunk size
+        for (int chunk : new int[] { 1, 2, 3, 7, 16, 64 }) {
+            var whole = new Scanner(bytes);
+            var stream = new Scanner(new ByteArrayInputStream(bytes), chunk);
+
+            Token tk;
+            do {
+                tk = whole.nextToken();
+                Token other = stream.nextToken();
+                assertEquals(tk.type, other.type);
+                assertEquals(tk.lexeme, other.lexeme);
+                assertEquals(tk.line, other.line);
+                assertEquals(whole.tokenStart(), stream.tokenStart());
+            } while (tk.type != TokenType.EOF);
+        }
+    }
+
 }
@@ -0,0 +1,149 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import br.ufma.ecp.token.TokenType;
+
+public class SignatureIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String POINT = """
+        class Point {
+            static int count;
+            field int x, y;
+            constructor Point new (int ax, int ay) {
+                let x = ax;
+                let y = ay;
+                if (x < 0) { while (y > 0) { let y = y - 1; } }
+                return this;
+            }
+            method int getX () { return x; }
+            function int origin () { return 0; }
+            method void move (int dx, int dy, boolean check) { return; }
+        }
+        """;
+
+    private static final String MAIN = """
+        class Main {
+            function void main () {
+                var Point p;
+                let p = Point.new(1, 2);
+                do Output.printInt(p.getX());
+                do Main.show(Point.origin());
+                return;
+            }
+            function void show (int v) { return; }
+        }
+        """;
+
+    private File write(String name, String source) throws IOException {
+        var file = folder.newFile(name);
+        Files.writeString(file.toPath(), source);
+        return file;
+    }
+
+    @Test
+    public void testDeclarations () {
+        var info = SignatureIndex.declarations(new Scanner(POINT.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("Point", info.name());
+        assertEquals(2, info.nFields());
+        assertEquals(4, info.subroutines().size());
+        var ctor = info.subroutines().get("new");
+        assertEquals(TokenType.CONSTRUCTOR, ctor.kind());
+        assertEquals("Point", ctor.returnType());
+        assertEquals(2, ctor.nArgs());
+        assertEquals(0, info.subroutines().get("getX").nParams());
+        assertEquals(1, info.subroutines().get("getX").nArgs());
+        assertEquals(0, info.subroutines().get("origin").nArgs());
+        assertEquals(3, info.subroutines().get("move").nParams());
+        assertEquals(1, info.nStatics());
+        // 240 statics less Point.count, for two classes
+        assertEquals(119, index(POINT, MAIN).stringsPerClass());
+    }
+
+    @Test
+    public void testBuild () throws IOException {
+        var files = new ArrayList<File>();
+        files.add(write("Point.jack", POINT));
+        files.add(write("Main.jack", MAIN));
+        files.add(write("Broken.jack", "class Broken { function void f ( { return; }"));
+        for (int i = 0; i < 20; i++) {
+            files.add(write("C" + i + ".jack", "class C" + i + " { function int f (int a) { return a; } }"));
+        }
+        var index = SignatureIndex.build(files, 4);
+        assertEquals(22, index.size());
+        assertTrue(index.has("Point"));
+        assertFalse(index.has("Broken"));
+        assertEquals(1, index.find("C7", "f").nParams());
+        assertNull(index.find("Point", "nothing"));
+        assertNull(index.find("Output", "printInt"));
+    }
+
+    private static String compile(String source, SignatureIndex index) {
+        var parser = new Parser(source.getBytes(StandardCharsets.UTF_8), Parser.Output.VM).index(index);
+        parser.parse();
+        return parser.VMOutput();
+    }
+
+    private static SignatureIndex index(String... sources) {
+        var classes = new java.util.HashMap<String, SignatureIndex.ClassInfo>();
+        for (String source : sources) {
+            var info = SignatureIndex.declarations(new Scanner(source.getBytes(StandardCharsets.UTF_8)));
+            classes.put(info.name(), info);
+        }
+        return new SignatureIndex(classes);
+    }
+
+    @Test
+    public void testCalls () {
+        var index = index(POINT, MAIN);
+        assertEquals(compile(MAIN, null), compile(MAIN, index));
+
+        // a function of the class called without the class name gets no this
+        var own = """
+            class Main {
+                function int twice (int a) { return a + a; }
+                function int f () { return twice(3); }
+            }
+            """;
+        assertTrue(compile(own, null).contains("push pointer 0\npush constant 3\ncall Main.twice 2\n"));
+        assertTrue(compile(own, index(own)).contains("function Main.f 0\npush constant 3\ncall Main.twice 1\n"));
+    }
+
+    private static void assertError(String body, String message) {
+        var source = "class Main { function void main () { var Point p; " + body + " return; } }";
+        try {
+            compile(source, index(POINT, source));
+            fail(body);
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    @Test
+    public void testErrors () {
+        assertError("let p = Point.new(1);", "Point.new takes 2 arguments, got 1");
+        assertError("do p.move(1, 2);", "Point.move takes 3 arguments, got 2");
+        assertError("do p.jump();", "Point has no subroutine jump");
+        assertError("do Point.getX();", "Point.getX is a method, it needs an object");
+        assertError("do p.origin();", "Point.origin is not a method, call it on the class");
+        assertError("do main(1);", "Main.main takes 0 arguments, got 1");
+    }
+}
@@ -0,0 +1,91 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import br.ufma.ecp.SymbolTable.Kind;
+import br.ufma.ecp.SymbolTable.Symbol;
+
+public class SymbolTableTest {
+
+    @Test
+    public void testDefineAndResolve () {
+        var table = new SymbolTable();
+        table.define("count", "int", Kind.STATIC);
+        table.define("x", "int", Kind.FIELD);
+        table.define("y", "int", Kind.FIELD);
+        table.startSubroutine();
+        table.define("this", "Point", Kind.ARG);
+        table.define("dx", "int", Kind.ARG);
+        table.define("x", "boolean", Kind.VAR);
+
+        assertEquals(new Symbol("count", "int", Kind.STATIC, 0), table.resolve("count"));
+        assertEquals(new Symbol("y", "int", Kind.FIELD, 1), table.resolve("y"));
+        assertEquals(new Symbol("dx", "int", Kind.ARG, 1), table.resolve("dx"));
+        // the local hides the field
+        assertEquals(new Symbol("x", "boolean", Kind.VAR, 0), table.resolve("x"));
+        // a name built at run time, not the instance that was defined
+        assertEquals(Kind.ARG, table.resolve(new StringBuilder("d").append('x').toString()).kind());
+        assertNull(table.resolve("z"));
+        assertEquals(2, table.varCount(Kind.FIELD));
+        assertEquals(2, table.varCount(Kind.ARG));
+    }
+
+    @Test
+    public void testStartSubroutine () {
+        var table = new SymbolTable();
+        table.define("x", "int", Kind.FIELD);
+        table.startSubroutine();
+        table.define("a", "int", Kind.ARG);
+        table.define("x", "int", Kind.VAR);
+        table.startSubroutine();
+
+        assertNull(table.resolve("a"));
+        assertEquals(Kind.FIELD, table.resolve("x").kind());
+        assertEquals(0, table.varCount(Kind.ARG));
+        assertEquals(0, table.varCount(Kind.VAR));
+        assertEquals(1, table.varCount(Kind.FIELD));
+        // the name can be defined again in the new subroutine
+        table.define("a", "char", Kind.VAR);
+        assertEquals(new Symbol("a", "char", Kind.VAR, 0), table.resolve("a"));
+    }
+
+    @Test
+    public void testAlreadyDefined () {
+        var table = new SymbolTable();
+        table.startSubroutine();
+        table.define("i", "int", Kind.VAR);
+        try {
+            table.define("i", "int", Kind.ARG);
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals("variable already defined", e.getMessage());
+        }
+    }
+
+    // thousands of names, over many subroutines, through the table growing
+    @Test
+    public void testManyNames () {
+        var table = new SymbolTable();
+        for (int i = 0; i < 5000; i++) {
+            table.define("f" + i, "int", Kind.FIELD);
+        }
+        for (int sub = 0; sub < 50; sub++) {
+            table.startSubroutine();
+            for (int i = 0; i < 2000; i++) {
+                table.define("v" + (sub + i), "int", Kind.VAR);
+            }
+            assertEquals(2000, table.varCount(Kind.VAR));
+            assertEquals(new Symbol("v" + (sub + 1999), "int", Kind.VAR, 1999), table.resolve("v" + (sub + 1999)));
+            assertNull(table.resolve("v" + (sub + 2000)));
+            if (sub > 0) {
+                assertEquals(0, table.resolve("v" + sub).index());
+            }
+        }
+        assertEquals(4999, table.resolve("f4999").index());
+        assertEquals(5000, table.varCount(Kind.FIELD));
+    }
+}
@@ -0,0 +1,233 @@
+package br.ufma.ecp;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * A small VM emulator for the tests: runs the output of the compiler so an
+ * optimized program can be checked against the plain one by what it does,
+ * not by the text of its code. Memory follows the Hack layout (statics from
+ * 16, stack from 256, heap from 2048) and values are 16 bits wide. OS
+ * routines that no loaded class defines are built in, printing goes to
+ * output().
+ */
+public class VMInterpreter {
+
+    private static final int SP = 0, LCL = 1, ARG = 2, THIS = 3, THAT = 4, TEMP = 5;
+
+    private static class Function {
+        String name;
+        int nLocals;
+        String[][] code;
+        Map<String, Integer> labels = new HashMap<>();
+    }
+
+    private final Map<String, Function> functions = new HashMap<>();
+    private final Map<String, Integer> statics = new HashMap<>();
+    private final int[] ram = new int[32768];
+    private final StringBuilder output = new StringBuilder();
+    private int heap = 2048;
+    private long steps;
+
+    public VMInterpreter(String... vmFiles) {
+        for (String vm : vmFiles) {
+            load(vm);
+        }
+        ram[SP] = 256;
+    }
+
+    private void load(String vm) {
+        Function current = null;
+        var code = new java.util.ArrayList<String[]>();
+        for (String line : (vm + "\nfunction $end 0").split("\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("//")) {
+                continue;
+            }
+            var parts = line.split("\\s+");
+            if (parts[0].equals("function")) {
+                if (current != null) {
+                    current.code = code.toArray(new String[0][]);
+                    functions.put(current.name, current);
+                }
+                current = new Function();
+                current.name = parts[1];
+                current.nLocals = Integer.parseInt(parts[2]);
+                code.clear();
+            } else if (parts[0].equals("label")) {
+                current.labels.put(parts[1], code.size());
+            } else {
+                code.add(parts);
+            }
+        }
+    }
+
+    public String output() {
+        return output.toString();
+    }
+
+    // VM commands executed so far, a stand-in for run time
+    public long steps() {
+        return steps;
+    }
+
+    private static int word(int v) {
+        return (short) v;
+    }
+
+    private void push(int v) {
+        ram[ram[SP]++] = word(v);
+    }
+
+    private int pop() {
+        return ram[--ram[SP]];
+    }
+
+    public int call(String name, int... args) {
+        for (int a : args) {
+            push(a);
+        }
+        invoke(name, args.length);
+        return pop();
+    }
+
+    private int address(String className, String segment, int index) {
+        switch (segment) {
+            case "local": return ram[LCL] + index;
+            case "argument": return ram[ARG] + index;
+            case "this": return ram[THIS] + index;
+            case "that": return ram[THAT] + index;
+            case "pointer": return THIS + index;
+            case "temp": return TEMP + index;
+            case "static": return statics.computeIfAbsent(className + "." + index, k -> 16 + statics.size());
+            default: throw new IllegalStateException("segment " + segment);
+        }
+    }
+
+    private void invoke(String name, int nArgs) {
+        var f = functions.get(name);
+        if (f == null) {
+            var args = new int[nArgs];
+            for (int i = nArgs - 1; i >= 0; i--) {
+                args[i] = pop();
+            }
+            push(builtin(name, args));
+            return;
+        }
+        var thisSave = ram[THIS];
+        var thatSave = ram[THAT];
+        var lclSave = ram[LCL];
+        var argSave = ram[ARG];
+        ram[ARG] = ram[SP] - nArgs;
+        ram[LCL] = ram[SP];
+        for (int i = 0; i < f.nLocals; i++) {
+            push(0);
+        }
+        var className = name.substring(0, name.indexOf('.'));
+        var pc = 0;
+        while (true) {
+            if (++steps > 50_000_000) {
+                throw new IllegalStateException("too many steps, endless loop?");
+            }
+            var in = f.code[pc++];
+            switch (in[0]) {
+                case "push":
+                    if (in[1].equals("constant")) {
+                        push(Integer.parseInt(in[2]));
+                    } else {
+                        push(ram[address(className, in[1], Integer.parseInt(in[2]))]);
+                    }
+                    break;
+                case "pop":
+                    ram[address(className, in[1], Integer.parseInt(in[2]))] = pop();
+                    break;
+                case "add": { int b = pop(), a = pop(); push(a + b); break; }
+                case "sub": { int b = pop(), a = pop(); push(a - b); break; }
+                case "and": { int b = pop(), a = pop(); push(a & b); break; }
+                case "or": { int b = pop(), a = pop(); push(a | b); break; }
+                case "eq": { int b = pop(), a = pop(); push(a == b ? -1 : 0); break; }
+                case "lt": { int b = pop(), a = pop(); push(a < b ? -1 : 0); break; }
+                case "gt": { int b = pop(), a = pop(); push(a > b ? -1 : 0); break; }
+                case "neg": push(-pop()); break;
+                case "not": push(~pop()); break;
+                case "goto": pc = target(f, in[1]); break;
+                case "if-goto":
+                    if (pop() != 0) {
+                        pc = target(f, in[1]);
+                    }
+                    break;
+                case "call": invoke(in[1], Integer.parseInt(in[2])); break;
+                case "return": {
+                    var result = pop();
+                    ram[SP] = ram[ARG];
+                    ram[THIS] = thisSave;
+                    ram[THAT] = thatSave;
+                    ram[LCL] = lclSave;
+                    ram[ARG] = argSave;
+                    push(result);
+                    return;
+                }
+                default:
+                    throw new IllegalStateException("unknown command " + String.join(" ", in));
+            }
+        }
+    }
+
+    private static int target(Function f, String label) {
+        var pc = f.labels.get(label);
+        if (pc == null) {
+            throw new IllegalStateException("no label " + label + " in " + f.name);
+        }
+        return pc;
+    }
+
+    private int alloc(int size) {
+        var block = heap;
+        heap += Math.max(size, 1);
+        return block;
+    }
+
+    // strings are [length, capacity, chars...]
+    private String string(int s) {
+        var sb = new StringBuilder();
+        for (int i = 0; i < ram[s]; i++) {
+            sb.append((char) ram[s + 2 + i]);
+        }
+        return sb.toString();
+    }
+
+    private int builtin(String name, int[] a) {
+        // a rough cost of the OS routine, multiplication and division loop over the bits
+        steps += name.equals("Math.multiply") || name.equals("Math.divide") ? 300 : 20;
+        switch (name) {
+            case "Math.multiply": return word(a[0] * a[1]);
+            case "Math.divide": return word(a[0] / a[1]);
+            case "Math.abs": return word(Math.abs(a[0]));
+            case "Math.min": return Math.min(a[0], a[1]);
+            case "Math.max": return Math.max(a[0], a[1]);
+            case "Memory.alloc": return alloc(a[0]);
+            case "Memory.deAlloc": return 0;
+            case "Memory.peek": return ram[a[0] & 0x7fff];
+            case "Memory.poke": ram[a[0] & 0x7fff] = a[1]; return 0;
+            case "Array.new": return alloc(a[0]);
+            case "Array.dispose": return 0;
+            case "String.new": {
+                var s = alloc(a[0] + 2);
+                ram[s] = 0;
+                ram[s + 1] = a[0];
+                return s;
+            }
+            case "String.appendChar":
+                ram[a[0] + 2 + ram[a[0]]++] = a[1];
+                return a[0];
+            case "String.length": return ram[a[0]];
+            case "String.charAt": return ram[a[0] + 2 + a[1]];
+            case "String.dispose": return 0;
+            case "Output.printInt": output.append(a[0]); return 0;
+            case "Output.printString": output.append(string(a[0])); return 0;
+            case "Output.printChar": output.append((char) a[0]); return 0;
+            case "Output.println": output.append('\n'); return 0;
+            default: throw new IllegalStateException("no function " + name);
+        }
+    }
+}
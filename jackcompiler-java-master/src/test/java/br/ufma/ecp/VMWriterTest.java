@@ -0,0 +1,74 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import br.ufma.ecp.VMWriter.Command;
+import br.ufma.ecp.VMWriter.Segment;
+
+public class VMWriterTest extends TestSupport {
+
+    @Test
+    public void testInstructions () {
+        var writer = new VMWriter();
+        writer.writeFunction("Main.main", 2);
+        writer.writePush(Segment.CONST, 32767);
+        writer.writePop(Segment.LOCAL, 0);
+        writer.writeArithmetic(Command.NEG);
+        writer.writeLabel("WHILE_EXP0");
+        writer.writeIf("WHILE_END0");
+        writer.writeGoto("WHILE_EXP0");
+        writer.writeCall("Math.multiply", 2);
+        writer.writeReturn();
+        String expected = """
+            function Main.main 2
+            push constant 32767
+            pop local 0
+            neg
+            label WHILE_EXP0
+            if-goto WHILE_END0
+            goto WHILE_EXP0
+            call Math.multiply 2
+            return
+            """;
+        assertEquals(expected, writer.vmOutput());
+    }
+
+    @Test
+    public void testStreamingMatchesMemory () {
+        var memory = new VMWriter();
+        var out = new ByteArrayOutputStream();
+        var streamed = new VMWriter(out);
+
+        // several times the buffer size, so it has to be drained along the way
+        for (int i = -5000; i < 5000; i++) {
+            memory.writePush(Segment.CONST, i);
+            streamed.writePush(Segment.CONST, i);
+            memory.writeCall("Output.printInt", 1);
+            streamed.writeCall("Output.printInt", 1);
+        }
+        streamed.flush();
+
+        assertEquals(memory.vmOutput(), out.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testParserStreamsToChannel () throws IOException {
+        var input = fromFile("Square/SquareGame.jack").getBytes(StandardCharsets.UTF_8);
+
+        var parser = new Parser(input);
+        parser.parse();
+
+        var out = new ByteArrayOutputStream();
+        var streaming = new Parser(input, Channels.newChannel(out));
+        streaming.parse();
+
+        assertEquals(parser.VMOutput(), out.toString(StandardCharsets.US_ASCII));
+    }
+}